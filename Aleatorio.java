@@ -0,0 +1,43 @@
+/******************************************************************************
+ *  Compilação:  javac Aleatorio.java
+ *  Execução:    none
+ *
+ *  Dependencies: none
+ *
+ *  Números aleatórios das perturbações de 'borboleta' e das réplicas. Cada
+ *  thread tem o seu gerador, de modo que tarefas rodando em paralelo em
+ *  'Lote' não disputam o mesmo gerador e uma tarefa com semente dá sempre
+ *  o mesmo resultado. Sem semente, funciona como 'Math.random()'.
+ ******************************************************************************/
+
+import java.util.Random;
+
+public class Aleatorio {
+
+    private static final ThreadLocal<Random> gerador = ThreadLocal.withInitial(Random::new);
+    private static final ThreadLocal<Long> semente = new ThreadLocal<Long>();
+
+    private Aleatorio() {}
+
+    // Fixa a semente do gerador da thread atual.
+    public static void semeia(long semente) {
+        gerador.set(new Random(semente));
+        Aleatorio.semente.set(semente);
+    }
+
+    // Volta a thread atual a um gerador sem semente.
+    public static void esquece() {
+        gerador.remove();
+        semente.remove();
+    }
+
+    // Semente da thread atual, ou null se não houver. Qualquer 'long' é uma semente válida.
+    public static Long semente() {
+        return semente.get();
+    }
+
+    // Número uniforme em [0, 1).
+    public static double uniforme() {
+        return gerador.get().nextDouble();
+    }
+}
@@ -11,7 +11,22 @@
  ******************************************************************************/
 
 import java.awt.Color;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoublePredicate;
+import java.util.function.IntSupplier;
+import java.util.concurrent.RecursiveTask;
 
 public class Asimov {
 
@@ -21,6 +36,40 @@ public class Asimov {
     private double t;          				 // Relógio da simulação.
     private static final double HZ = 0.5;    // Número de eventos feitos a cada tick do relógio.
     private Particle[] particles;     		 // Array que contém as partículas a serem usadas.
+    private Renderizador render;             // Desenho em outra thread, quando pedido com '--assincrono'.
+    private ExportaQuadros exportador;       // Gravação de quadros em PNG, sem 'StdDraw'.
+    private IndiceEspacial indice;           // Fase larga do 'predict', escolhida com '--indice'; null testa todas.
+    private Pares pares;                     // Pares já previstos, usado junto com o índice espacial.
+    private Checkpoint checkpoint;           // Gravação periódica do estado em 'simulaSemPrint'.
+    private Monitor monitor;                 // Deriva de energia e momento, pedida com '--monitor=K'.
+    private Observador observador;           // Recebe cada colisão, usado por 'Verificacao'.
+    private Entropia entropia;               // Entropia de granulação grossa, se acompanhada.
+    private Transporte transporte;           // Percurso livre, frequência de colisões e MSD, se acompanhados.
+    private Telemetria.Fonte telemetria;     // Métricas para o servidor de '--telemetria=porta'.
+    private static final int VERSAO_CHECKPOINT = 3;
+    // Mude sempre que uma alteração no motor mudar os resultados, para invalidar o 'Cache'.
+    static final int VERSAO_MOTOR = 2;
+
+    // A partir deste número de partículas as previsões iniciais são feitas em paralelo.
+    private static final int MINIMO_PARALELO = 4096;
+    private static final int BLOCO_PARALELO = 64;
+
+    private int[] noLote;                    // Posição + 1 de cada partícula no lote atual, 0 se fora dele.
+    private int tamanhoLote;                 // Tamanho do próximo lote, ajustado conforme eles são aceitos.
+
+    // Tipos de evento. Os eventos comuns são diferenciados por quais partículas são nulas,
+    // como em 'CollisionSystem.java'; os demais têm um tipo próprio.
+    private static final int COMUM = 0;
+    private static final int INDICE = 1;     // Atualização de 'a' no índice espacial.
+    private static final int AMOSTRA = 2;    // Medida de 'simulaGrafico', sem partículas.
+    private static final int ENTROPIA = 3;   // 'a' atravessa uma fronteira da grade de 'entropia'.
+
+    // Opções passadas como '--nome=valor' na linha de comando, em qualquer posição.
+    private static final HashMap<String, String> opcoes = new HashMap<String, String>();
+
+    // Opções que mudam a sequência de eventos. Vão no checkpoint, para que a simulação
+    // retomada siga com as mesmas.
+    private static final String[] OPCOES_CHECKPOINT = {"indice", "horizonte", "lote", "paralelo-inicial"};
 
 	// Seção do código aproveitada de 'CollisionSystem.java' -------------------------*/
 
@@ -32,31 +81,260 @@ public class Asimov {
     public Asimov(Particle[] particles) {
         this.particles = new Particle[particles.length]; // Cópia defensiva.
         for (int i = 0; i < particles.length; i++) this.particles[i] = new Particle(particles[i].rx(), particles[i].ry(), particles[i].vx(), particles[i].vy(), particles[i].radius(), particles[i].mass(), particles[i].color());
+        for (int i = 0; i < particles.length; i++) this.particles[i].defineIndice(i);
+        indice = novoIndice();
+        if (indice != null) pares = new Pares(this.particles);
+        if (temOpcao("monitor")) monitor = new Monitor((int) opcao("monitor", 1000.0), opcao("monitor-limiar", 1e-12));
+        if (Telemetria.ligada()) telemetria = Telemetria.fonte();
+    }
+
+    // Volta ao estado 'estado', que deve ter a mesma estrutura (raios, massas e cores) das
+    // partículas atuais, reaproveitando as partículas, a fila e as demais estruturas já
+    // alocadas. O resultado é o mesmo de criar um 'new Asimov(estado)'.
+    public void reinicia(Particle[] estado) {
+        if (estado.length != particles.length) throw new IllegalArgumentException("Estado com " + estado.length + " partículas, esperávamos " + particles.length);
+        for (int i = 0; i < particles.length; i++) {
+            Particle p = particles[i], q = estado[i];
+            if (p.radius() == q.radius() && p.mass() == q.mass() && p.color().equals(q.color()))
+                p.defineEstado(q.rx(), q.ry(), q.vx(), q.vy(), 0);
+            else {
+                particles[i] = new Particle(q.rx(), q.ry(), q.vx(), q.vy(), q.radius(), q.mass(), q.color());
+                particles[i].defineIndice(i);
+            }
+        }
+    }
+
+    // Cada thread guarda o último sistema que usou. Uma nova simulação com o mesmo número de
+    // partículas o reaproveita, já aquecido, em vez de alocar tudo de novo.
+    private static final ThreadLocal<Asimov> motores = new ThreadLocal<Asimov>();
+
+    static Asimov motor(Particle[] particles) {
+        Asimov system = motores.get();
+        if (system != null && system.particles.length == particles.length) system.reinicia(particles);
+        else {
+            system = new Asimov(particles);
+            motores.set(system);
+        }
+        return system;
+    }
+
+    // Escolhe a fase larga do 'predict' a partir da opção '--indice'.
+    private static IndiceEspacial novoIndice() {
+        String nome = opcao("indice", "");
+        if (nome.isEmpty())       return null;
+        if (nome.equals("grade")) return new GradeHierarquica();
+        if (nome.equals("sap"))   return new VarreduraPoda(opcao("horizonte", 0.0));
+        throw new IllegalArgumentException("Índice espacial desconhecido: " + nome);
     }
 
     // Atualiza a fila de prioridades, agora com todos os novos eventos
-    // relacionados à 'a'.
-    private void predict(Particle a, double limit) {
+    // relacionados à 'a'. O par com 'feito' já foi previsto neste mesmo evento, e os pares
+    // com partículas de índice menor que 'minimo' são previstos por elas.
+    private void predict(Particle a, Particle feito, int minimo, double limit) {
         if (a == null) return;
 
-        for (int i = 0; i < particles.length; i++) {
-            double dt = a.timeToHit(particles[i]);
-            if (t + dt <= limit)
-                pq.insert(new Event(t + dt, a, particles[i]));
-        }
+        if (indice != null) indice.mudouVelocidade(a);
+        predictPares(a, feito, minimo, limit);
 
         double dtX = a.timeToHitVerticalWall();
         double dtY = a.timeToHitHorizontalWall();
         if (t + dtX <= limit) pq.insert(new Event(t + dtX, a, null));
         if (t + dtY <= limit) pq.insert(new Event(t + dtY, null, a));
+
+        if (indice != null) agendaIndice(a, limit);
+        if (entropia != null) {
+            entropia.mudouVelocidade(a);
+            agendaEntropia(a, limit);
+        }
+    }
+
+    // Só as colisões de 'a' com outras partículas de índice maior ou igual a 'minimo'. Sem
+    // índice espacial testamos todas, como antes.
+    private void predictPares(Particle a, Particle feito, int minimo, double limit) {
+        if (indice == null) {
+            for (int i = minimo; i < particles.length; i++)
+                if (particles[i] != a && particles[i] != feito) predictPar(a, particles[i], limit);
+        }
+        else indice.candidatos(a, i -> {
+            if (i >= minimo && particles[i] != feito) predictPar(a, particles[i], limit);
+        });
+    }
+
+    // Cada par entra na fila uma única vez, sempre com a partícula de menor índice como 'a'.
+    // Como 'timeToHit' e 'bounceOff' são simétricos, a ordem não muda a física. Com o índice
+    // espacial, um par cujas contagens não mudaram desde a última previsão é pulado.
+    private void predictPar(Particle a, Particle b, double limit) {
+        if (pares != null && !pares.novo(a, b)) return;
+        double dt = a.timeToHit(b);
+        if (t + dt <= limit) {
+            if (a.indice() < b.indice()) pq.insert(new Event(t + dt, a, b));
+            else                         pq.insert(new Event(t + dt, b, a));
+        }
+    }
+
+    private void agendaIndice(Particle a, double limit) {
+        double dt = indice.tempoAteAtualizar(a);
+        if (t + dt <= limit) pq.insert(new Event(t + dt, a, INDICE));
+    }
+
+    private void agendaEntropia(Particle a, double limit) {
+        double dt = entropia.tempoAteCruzar(a);
+        if (t + dt <= limit) pq.insert(new Event(t + dt, a, ENTROPIA));
+    }
+
+    // Zera o relógio e monta a fila com as previsões de todas as partículas.
+    private void inicia(double limite) {
+        t = 0.0;
+        tamanhoLote = 2;
+        if (monitor != null) monitor.inicia(particles);
+        if (entropia != null) entropia.inicia(particles);
+        if (transporte != null) transporte.inicia(particles);
+        if (telemetria != null) telemetria.inicia(particles);
+        repreve(limite);
+        pq.insert(new Event(0, null, null));
+    }
+
+    // Monta a fila a partir do estado atual, sem mexer no relógio. A fila de uma simulação
+    // anterior é esvaziada, mas o array dela é mantido.
+    private void repreve(double limite) {
+        if (pq == null) pq = new MinPQ<Event>();
+        else            pq.clear();
+        if (indice != null) indice.constroi(particles);
+        if (pares != null) pares.limpa();
+        if (particles.length >= opcao("paralelo-inicial", MINIMO_PARALELO)) {
+            previsoesEmBloco(limite);
+            return;
+        }
+        // Cada partícula só prevê os pares com as de índice maior, para não repetir nenhum.
+        for (int i = 0; i < particles.length; i++) predict(particles[i], null, i + 1, limite);
+    }
+
+    // Para sistemas grandes: os blocos de partículas calculam seus eventos em paralelo, cada
+    // um numa lista própria, e a fila é montada de uma vez, em tempo linear. As listas são
+    // juntadas sempre na mesma ordem, então o resultado não depende do número de threads.
+    private void previsoesEmBloco(double limite) {
+        ArrayList<Event> eventos = ForkJoinPool.commonPool().invoke(new Previsoes(0, particles.length, limite));
+        Event[] todos = eventos.toArray(new Event[0]);
+        if (pares != null)
+            for (Event e : todos) if (e.a != null && e.b != null) pares.novo(e.a, e.b);
+        pq.replaceAll(todos);
+    }
+
+    // Previsões iniciais das partículas [lo, hi). Só lê o estado, nada é escrito na fila.
+    // Como toda tarefa de fork-join, é 'Serializable', mas nunca é serializada.
+    @SuppressWarnings("serial")
+    private class Previsoes extends RecursiveTask<ArrayList<Event>> {
+        private final int lo, hi;
+        private final double limite;
+
+        Previsoes(int lo, int hi, double limite) {
+            this.lo = lo;
+            this.hi = hi;
+            this.limite = limite;
+        }
+
+        protected ArrayList<Event> compute() {
+            if (hi - lo <= BLOCO_PARALELO) {
+                ArrayList<Event> eventos = new ArrayList<Event>();
+                for (int i = lo; i < hi; i++) previsoesIniciais(particles[i], limite, eventos);
+                return eventos;
+            }
+            int meio = (lo + hi) >>> 1;
+            Previsoes direita = new Previsoes(meio, hi, limite);
+            direita.fork();
+            ArrayList<Event> eventos = new Previsoes(lo, meio, limite).compute();
+            eventos.addAll(direita.join());
+            return eventos;
+        }
+    }
+
+    // Os mesmos eventos que 'predict(a, null, a.indice() + 1, limite)' colocaria na fila.
+    private void previsoesIniciais(Particle a, double limite, ArrayList<Event> eventos) {
+        int minimo = a.indice() + 1;
+        if (indice == null) {
+            for (int i = minimo; i < particles.length; i++) {
+                double dt = a.timeToHit(particles[i]);
+                if (t + dt <= limite) eventos.add(new Event(t + dt, a, particles[i]));
+            }
+        }
+        else indice.candidatos(a, i -> {
+            if (i < minimo) return;
+            double dt = a.timeToHit(particles[i]);
+            if (t + dt <= limite) eventos.add(new Event(t + dt, a, particles[i]));
+        });
+
+        double dtX = a.timeToHitVerticalWall();
+        double dtY = a.timeToHitHorizontalWall();
+        if (t + dtX <= limite) eventos.add(new Event(t + dtX, a, null));
+        if (t + dtY <= limite) eventos.add(new Event(t + dtY, null, a));
+
+        if (indice != null) {
+            double dt = indice.tempoAteAtualizar(a);
+            if (t + dt <= limite) eventos.add(new Event(t + dt, a, INDICE));
+        }
+        if (entropia != null) {
+            double dt = entropia.tempoAteCruzar(a);
+            if (t + dt <= limite) eventos.add(new Event(t + dt, a, ENTROPIA));
+        }
+    }
+
+    // Trata um evento tirado da fila: move todas as partículas até o instante dele, aplica
+    // a colisão e prevê os novos eventos. Devolve falso se o evento era inválido ou só
+    // atualizava o índice espacial, isto é, se nada de visível aconteceu.
+    private boolean trata(Event e, double limite, boolean desenha) {
+        boolean valido = e.isValid();
+        if (telemetria != null && telemetria.conta(valido)) telemetria.publica(t, pq.size(), particles);
+        if (!valido) return false;
+        Particle a = e.a;
+        Particle b = e.b;
+        for (int i = 0; i < particles.length; i++) particles[i].move(e.time - t);
+        t = e.time;
+        if (e.tipo == INDICE) {
+            // A velocidade não mudou, então só procuramos os novos vizinhos.
+            indice.atualiza(a);
+            predictPares(a, null, 0, limite);
+            agendaIndice(a, limite);
+            return false;
+        }
+        if (e.tipo == ENTROPIA) {
+            entropia.cruza(a);
+            agendaEntropia(a, limite);
+            return false;
+        }
+        if (e.tipo == AMOSTRA) return false;
+        boolean monitora = monitor != null && (a != null || b != null);
+        if (monitora) monitor.antes(a, b);
+        if      (a != null && b != null) a.bounceOff(b);
+        else if (a != null && b == null) a.bounceOffVerticalWall();
+        else if (a == null && b != null) b.bounceOffHorizontalWall();
+        else if (a == null && b == null && desenha) redraw(limite);
+        if (monitora) monitor.depois(a, b, particles);
+        if (transporte != null) {
+            if (a != null && b != null)      transporte.colisao(a, b, t);
+            else if (a != null || b != null) transporte.parede();
+        }
+        if (observador != null && (a != null || b != null)) observa(e);
+        predict(a, null, 0, limite);
+        predict(b, a, 0, limite);
+        return true;
     }
 
     // Redesenha todas partículas.
+    // No modo assíncrono só publicamos uma fotografia e seguimos, quem desenha é o 'Renderizador'.
+    // Quando exportamos quadros, o intervalo entre eles é o escolhido pelo usuário.
     private void redraw(double limit) {
-        StdDraw.clear();
-        for (int i = 0; i < particles.length; i++) particles[i].draw();
-        StdDraw.show();
-        StdDraw.pause(20);
+        if (exportador != null) {
+            exportador.grava(particles);
+            if (t < limit) pq.insert(new Event(t + exportador.intervalo(), null, null));
+            return;
+        }
+        if (render != null) render.publica(particles);
+        else {
+            StdDraw.clear();
+            for (int i = 0; i < particles.length; i++) particles[i].draw();
+            StdDraw.show();
+            StdDraw.pause(20);
+        }
         if (t < limit) pq.insert(new Event(t + 1.0 / HZ, null, null));
     }
 
@@ -64,6 +342,7 @@ public class Asimov {
         private final double time;         // time that event is scheduled to occur
         private final Particle a, b;       // particles involved in event, possibly null
         private final int countA, countB;  // collision counts at event creation
+        private final int tipo;            // COMUM, or one of the other event kinds
 
 
         // create a new event to occur at time t involving a and b
@@ -71,12 +350,33 @@ public class Asimov {
             this.time = t;
             this.a    = a;
             this.b    = b;
+            this.tipo = COMUM;
             if (a != null) countA = a.count();
             else           countA = -1;
             if (b != null) countB = b.count();
             else           countB = -1;
         }
 
+        // recreate an event read from a checkpoint, with the counts it was created with
+        private Event(double t, Particle a, Particle b, int countA, int countB, int tipo) {
+            this.time   = t;
+            this.a      = a;
+            this.b      = b;
+            this.countA = countA;
+            this.countB = countB;
+            this.tipo   = tipo;
+        }
+
+        // create an event of the given kind involving only a, possibly null
+        public Event(double t, Particle a, int tipo) {
+            this.time   = t;
+            this.a      = a;
+            this.b      = null;
+            this.tipo   = tipo;
+            this.countA = a != null ? a.count() : -1;
+            this.countB = -1;
+        }
+
         // compare times when two events will occur
         public int compareTo(Event that) {
             return Double.compare(this.time, that.time);
@@ -115,28 +415,14 @@ public class Asimov {
     // Simulação que ocorre por um tempo determinado pelo clique do usuário,
     public void simulaClique (double limite) {
 
-        t = 0.0;
-        pq = new MinPQ<Event>();
-        for (int i = 0; i < particles.length; i++) predict(particles[i], limite);
-        pq.insert(new Event(0, null, null));
+        inicia(limite);
         boolean bool = true;
 
         // Laço principal da simulação
         while ((bool) && (!pq.isEmpty())) {
-            Event e = pq.delMin();
-            if (!e.isValid()) continue;
-            Particle a = e.a;
-            Particle b = e.b;
-            for (int i = 0; i < particles.length; i++) particles[i].move(e.time - t);
-            t = e.time;
-            if      (a != null && b != null) a.bounceOff(b);
-            else if (a != null && b == null) a.bounceOffVerticalWall();
-            else if (a == null && b != null) b.bounceOffHorizontalWall();
-            else if (a == null && b == null) redraw(limite);
-            predict(a, limite);
-            predict(b, limite);
+            trata(pq.delMin(), limite, true);
             // Quando o usuário clica começamos o processo de reversão.
-            if (StdDraw.isMousePressed()) bool = false;
+            if (render != null ? render.clicou() : StdDraw.isMousePressed()) bool = false;
         }
     }
 
@@ -144,111 +430,471 @@ public class Asimov {
     // em relação À variável global 't'.
     public void simulaTempo (double limite, double tempo) {
 
-    	t = 0.0;
-    	pq = new MinPQ<Event>();
-        for (int i = 0; i < particles.length; i++) predict(particles[i], limite);
-        pq.insert(new Event(0, null, null));
+        inicia(limite);
 
     	while ((t < tempo) && (!pq.isEmpty())) {
-            Event e = pq.delMin();
-            if (!e.isValid()) continue;
-            Particle a = e.a;
-            Particle b = e.b;
-            for (int i = 0; i < particles.length; i++) particles[i].move(e.time - t);
-            t = e.time;
-            if      (a != null && b != null) a.bounceOff(b);
-            else if (a != null && b == null) a.bounceOffVerticalWall();
-            else if (a == null && b != null) b.bounceOffHorizontalWall();
-            else if (a == null && b == null) redraw(limite);
-            predict(a, limite);
-            predict(b, limite);
+            trata(pq.delMin(), limite, true);
         }
     }
 
-    public ArrayList<Double> simulaGrafico (double limite, double tempo, double time, double[][] poso) {
-
-        t = 0.0;
-        pq = new MinPQ<Event>();
-        for (int i = 0; i < particles.length; i++) predict(particles[i], limite);
-        pq.insert(new Event(0, null, null));
+    // Cada distância é passada direto para o 'grafico', que já reduz a série enquanto ela é gerada.
+    // A distância é medida em eventos de amostra, a cada 'intervalo' de tempo simulado, e não a
+    // cada colisão: o custo e o tamanho da série dependem só de 'tempo'. As partículas só são
+    // lidas nesses eventos, e o 'x' de cada ponto é 'inicio' mais o instante da amostra.
+    public void simulaGrafico (double limite, double tempo, double intervalo, double inicio, double[][] poso, Grafico grafico) {
 
         double[][] pos = new double[particles.length][2];
-        ArrayList<Double> dif = new ArrayList<Double>();
-        int j = 0;
-
-        while ((t < tempo) && (!pq.isEmpty())) {
-            Event e = pq.delMin();
-            if (!e.isValid()) continue;
-            Particle a = e.a;
-            Particle b = e.b;
-            for (int i = 0; i < particles.length; i++) particles[i].move(e.time - t);
-            t = e.time;
-            if      (a != null && b != null) a.bounceOff(b);
-            else if (a != null && b == null) a.bounceOffVerticalWall();
-            else if (a == null && b != null) b.bounceOffHorizontalWall();
-            predict(a, limite);
-            predict(b, limite);
-
+        amostra(limite, tempo, intervalo, agora -> {
             for (int i = 0; i < particles.length; i++) {
                 pos[i][0] = particles[i].rx();
                 pos[i][1] = particles[i].ry();
             }
-            dif.add(j, dif(poso, pos));
-            j++;
-        }
+            grafico.adiciona(inicio + agora, dif(poso, pos));
+        });
+    }
 
-        return dif;
+    // O mesmo, com a entropia de granulação grossa, cuja leitura custa O(1).
+    public void simulaEntropia (double limite, double tempo, double intervalo, double inicio, Entropia entropia, Grafico grafico) {
+
+        this.entropia = entropia;
+        amostra(limite, tempo, intervalo, agora -> grafico.adiciona(inicio + agora, entropia.valor()));
+        this.entropia = null;
+    }
+
+    // Escreve uma tabela com as estatísticas de transporte a cada 'intervalo', todas lidas em
+    // O(1) dos acumuladores mantidos a cada colisão.
+    public void simulaTransporte (double limite, double tempo, double intervalo) {
+
+        Transporte transporte = new Transporte();
+        StringBuilder sb = new StringBuilder("t frequencia percurso_livre msd difusao\n");
+        this.transporte = transporte;
+        amostra(limite, tempo, intervalo, agora -> {
+            if (agora == 0) return;
+            sb.append(agora).append(' ').append(transporte.frequencia(agora)).append(' ').append(transporte.percursoLivre())
+              .append(' ').append(transporte.deslocamentoQuadratico(agora)).append(' ').append(transporte.difusao(agora)).append('\n');
+        });
+        this.transporte = null;
+        System.out.print(sb);
+        System.out.println("Colisões entre partículas: " + transporte.pares() + ", com as paredes: " + transporte.batidas());
+    }
+
+    // Laço comum: 'medida' recebe o instante de cada evento de amostra.
+    private void amostra(double limite, double tempo, double intervalo, DoubleConsumer medida) {
+
+        inicia(limite);
+        pq.insert(new Event(0, null, AMOSTRA));
+
+        while ((t < tempo) && (!pq.isEmpty())) {
+            Event e = pq.delMin();
+            trata(e, limite, false);
+            if (e.tipo != AMOSTRA) continue;
+
+            medida.accept(t);
+            if (t + intervalo <= tempo) pq.insert(new Event(t + intervalo, null, AMOSTRA));
+        }
     }
 
     // Roda uma simulação sem printar o que está acontecendo.
     public void simulaSemPrint (double limite, double tempo) {
 
-        t = 0.0;
-        pq = new MinPQ<Event>();
-        for (int i = 0; i < particles.length; i++) predict(particles[i], limite);
-        pq.insert(new Event(0, null, null));
+        inicia(limite);
+        continuaSemPrint(limite, tempo);
+    }
+
+    // Para quem controla o avanço de fora, como 'Lyapunov'. 'comeca' zera o relógio e monta a
+    // fila; 'avancaAte' trata os eventos até 'tempo' e deixa todas as partículas exatamente
+    // nesse instante, em vez de parar no primeiro evento depois dele.
+    public void comeca(double limite) {
+        inicia(limite);
+    }
+
+    public void avancaAte(double tempo, double limite) {
+        int lote = (int) opcao("lote", 0.0);
+        boolean emLote = lote > 1 && indice == null && entropia == null && transporte == null;
+        while (!pq.isEmpty() && pq.min().time <= tempo) {
+            // O lote começa sempre por um evento válido, para não passar de 'tempo'.
+            if (emLote && pq.min().isValid()) trataLote(lote, limite, tempo);
+            else                              trata(pq.delMin(), limite, false);
+        }
+        for (int i = 0; i < particles.length; i++) particles[i].move(tempo - t);
+        t = tempo;
+    }
+
+    public double tempo() {return t;}
+
+    public void observa(Observador observador) {
+        this.observador = observador;
+    }
+
+    private void observa(Event e) {
+        observador.evento(e.time, e.a == null ? Observador.PAREDE : e.a.indice(), e.b == null ? Observador.PAREDE : e.b.indice());
+    }
 
+    // Copia posição e velocidade de cada partícula para 'saida', uma linha por partícula.
+    public void estado(double[][] saida) {
+        for (int i = 0; i < particles.length; i++) {
+            Particle p = particles[i];
+            saida[i][0] = p.rx(); saida[i][1] = p.ry();
+            saida[i][2] = p.vx(); saida[i][3] = p.vy();
+        }
+    }
+
+    // Laço de 'simulaSemPrint', separado para que uma simulação retomada de um checkpoint
+    // continue exatamente de onde parou.
+    private void continuaSemPrint (double limite, double tempo) {
+
+        // Com '--lote=k' e sem índice espacial, até 'k' eventos independentes são tratados juntos.
+        int lote = (int) opcao("lote", 0.0);
+        boolean emLote = lote > 1 && indice == null && entropia == null && transporte == null;
         while ((t < tempo) && (!pq.isEmpty())) {
-            Event e = pq.delMin();
-            if (!e.isValid()) continue;
-            Particle a = e.a;
-            Particle b = e.b;
-            for (int i = 0; i < particles.length; i++) particles[i].move(e.time - t);
-            t = e.time;
-            if      (a != null && b != null) a.bounceOff(b);
-            else if (a != null && b == null) a.bounceOffVerticalWall();
-            else if (a == null && b != null) b.bounceOffHorizontalWall();
-            //else if (a == null && b == null) redraw(limite);
-            predict(a, limite);
-            predict(b, limite);
+            if (emLote) trataLote(lote, limite, tempo);
+            else        trata(pq.delMin(), limite, false);
+            if (checkpoint != null) checkpoint.talvezGrave(this, limite, tempo);
         }
     }
 
+    // Lotes de eventos independentes -------------------------------------------------------*/
+
+    // Num gás diluído, os próximos eventos da fila quase sempre envolvem partículas distantes.
+    // Tiramos da fila até 'tamanho' eventos seguidos com participantes distintos e calculamos,
+    // em paralelo, o resultado de cada um a partir do estado atual, como se os outros não
+    // existissem. O lote só é aceito se nenhum evento novo acontecer antes do último evento
+    // do lote, 'tau'; nesse caso a ordem em que eles são tratados não importa. Senão, os
+    // eventos voltam para a fila e tratamos só o primeiro, como sempre. O tamanho do lote
+    // dobra a cada lote aceito, até 'maximo', e cai pela metade a cada recusa. Um evento
+    // depois de 'tempo' só é tratado sozinho, para que o lote não passe do fim pedido.
+    private void trataLote(int maximo, double limite, double tempo) {
+        int tamanho = tamanhoLote;
+        if (noLote == null || noLote.length != particles.length) noLote = new int[particles.length];
+
+        ArrayList<Event> lote = new ArrayList<Event>();
+        ArrayList<Fantasma> fantasmas = new ArrayList<Fantasma>();
+        while (lote.size() < tamanho && !pq.isEmpty()) {
+            Event e = pq.min();
+            if (!e.isValid()) {
+                pq.delMin();
+                if (telemetria != null) telemetria.conta(false);
+                continue;
+            }
+            if (e.tipo != COMUM || (e.a == null && e.b == null)) break;
+            if ((e.a != null && noLote[e.a.indice()] != 0) || (e.b != null && noLote[e.b.indice()] != 0)) break;
+            if (e.time > tempo && !lote.isEmpty()) break;
+            pq.delMin();
+            lote.add(e);
+            if (e.a != null) {fantasmas.add(new Fantasma(e, e.a, e.b)); noLote[e.a.indice()] = fantasmas.size();}
+            if (e.b != null) {fantasmas.add(new Fantasma(e, e.b, e.a)); noLote[e.b.indice()] = fantasmas.size();}
+        }
+
+        if (lote.size() < 2) {
+            for (Fantasma f : fantasmas) noLote[f.real.indice()] = 0;
+            if (lote.isEmpty()) trata(pq.delMin(), limite, false);
+            else                trata(lote.get(0), limite, false);
+            return;
+        }
+
+        double tau = lote.get(lote.size() - 1).time;
+        IntStream.range(0, fantasmas.size()).parallel().forEach(i -> fantasmas.get(i).colide(t));
+        boolean aceito = IntStream.range(0, fantasmas.size()).parallel()
+                                  .allMatch(i -> preveFantasma(fantasmas.get(i), fantasmas, tau, limite));
+
+        if (!aceito) {
+            for (Fantasma f : fantasmas) noLote[f.real.indice()] = 0;
+            for (Event e : lote) pq.insert(e);
+            trata(pq.delMin(), limite, false);
+            tamanhoLote = Math.max(2, tamanho / 2);
+            return;
+        }
+        if (lote.size() == tamanho) tamanhoLote = Math.min(maximo, 2 * tamanho);
+
+        // Leva tudo até 'tau': as partículas de fora do lote só andam, as de dentro passam pelo
+        // seu evento. Os eventos novos são criados depois, já com as contagens novas.
+        IntStream.range(0, particles.length).parallel().forEach(i -> {
+            if (noLote[i] == 0) particles[i].move(tau - t);
+        });
+        for (Event e : lote) {
+            if (monitor != null) monitor.antes(e.a, e.b);
+            aplica(e, t, tau);
+            if (monitor != null) monitor.depois(e.a, e.b, particles);
+            if (observador != null) observa(e);
+            if (telemetria != null) telemetria.conta(true);
+        }
+        t = tau;
+        for (Fantasma f : fantasmas) {
+            for (int k = 0; k < f.previstos; k++) {
+                int j = f.outros[k];
+                double tempoEvento = f.tempos[k];
+                if      (j == PAREDE_VERTICAL)   pq.insert(new Event(tempoEvento, f.real, null));
+                else if (j == PAREDE_HORIZONTAL) pq.insert(new Event(tempoEvento, null, f.real));
+                else if (f.real.indice() < j)    pq.insert(new Event(tempoEvento, f.real, particles[j]));
+                else                             pq.insert(new Event(tempoEvento, particles[j], f.real));
+            }
+            noLote[f.real.indice()] = 0;
+        }
+        if (telemetria != null && telemetria.hora()) telemetria.publica(t, pq.size(), particles);
+    }
+
+    private static final int PAREDE_VERTICAL = -1, PAREDE_HORIZONTAL = -2;
+
+    // Trata o evento do lote nas partículas reais, que estão em 'agora', e as leva até 'tau'.
+    // Os métodos de 'Particle' são os mesmos de 'trata', então as contagens e a posição
+    // desdobrada continuam certas, e as contas são as mesmas feitas nos fantasmas.
+    private static void aplica(Event e, double agora, double tau) {
+        if (e.a != null) e.a.move(e.time - agora);
+        if (e.b != null) e.b.move(e.time - agora);
+        if      (e.a != null && e.b != null) e.a.bounceOff(e.b);
+        else if (e.a != null)                e.a.bounceOffVerticalWall();
+        else                                 e.b.bounceOffHorizontalWall();
+        if (e.a != null) e.a.move(tau - e.time);
+        if (e.b != null) e.b.move(tau - e.time);
+    }
+
+    // Uma partícula do lote depois do seu evento, calculada sem tocar na partícula real.
+    private static class Fantasma {
+        private final Event evento;
+        private final Particle real, par;  // A partícula e a outra do mesmo evento, se houver.
+        private Particle depois;           // Estado logo depois do evento, no instante dele.
+        private Particle recuado;          // A mesma trajetória de 'depois', recuada até o relógio atual.
+        private double[] tempos = new double[8];
+        private int[] outros = new int[8]; // Índice da outra partícula, ou uma das paredes.
+        private int previstos = 0;
+
+        Fantasma(Event evento, Particle real, Particle par) {
+            this.evento = evento;
+            this.real = real;
+            this.par = par;
+        }
+
+        // Aplica o evento a cópias das partículas envolvidas.
+        void colide(double agora) {
+            double dt = evento.time - agora;
+            depois = copia(real, dt);
+            if (par != null) depois.bounceOff(copia(par, dt));
+            else if (evento.a == real) depois.bounceOffVerticalWall();
+            else                       depois.bounceOffHorizontalWall();
+            recuado = copia(depois, -dt);
+        }
+
+        private static Particle copia(Particle p, double dt) {
+            Particle c = new Particle(p.rx() + p.vx() * dt, p.ry() + p.vy() * dt, p.vx(), p.vy(), p.radius(), p.mass(), p.color());
+            c.defineEstado(c.rx(), c.ry(), c.vx(), c.vy(), p.count());
+            c.defineIndice(p.indice());
+            return c;
+        }
+
+        void anota(double tempo, int outro) {
+            if (previstos == tempos.length) {
+                tempos = Arrays.copyOf(tempos, 2 * previstos);
+                outros = Arrays.copyOf(outros, 2 * previstos);
+            }
+            tempos[previstos] = tempo;
+            outros[previstos++] = outro;
+        }
+    }
+
+    // Prevê os eventos de 'f' contra as partículas como estão agora e contra os fantasmas do
+    // lote. Os tempos são medidos a partir de 'recuado', então um choque antes de 'tau' pode
+    // ser real ou só da parte recuada da trajetória; nos dois casos o lote é recusado.
+    private boolean preveFantasma(Fantasma f, ArrayList<Fantasma> fantasmas, double tau, double limite) {
+        Particle g = f.recuado;
+        double tX = f.evento.time + f.depois.timeToHitVerticalWall();
+        double tY = f.evento.time + f.depois.timeToHitHorizontalWall();
+        if (tX < tau || tY < tau) return false;
+        if (tX <= limite) f.anota(tX, PAREDE_VERTICAL);
+        if (tY <= limite) f.anota(tY, PAREDE_HORIZONTAL);
+
+        for (int j = 0; j < particles.length; j++) {
+            Particle c = particles[j];
+            if (c == f.real || c == f.par) continue;
+            double tempoEvento = t + g.timeToHit(c);
+            if (tempoEvento < tau) return false;
+            if (noLote[j] == 0) {
+                if (tempoEvento <= limite) f.anota(tempoEvento, j);
+                continue;
+            }
+            // A outra partícula também está no lote: o par é previsto por quem tem menor índice.
+            if (f.real.indice() > j) continue;
+            tempoEvento = t + g.timeToHit(fantasmas.get(noLote[j] - 1).recuado);
+            if (tempoEvento < tau) return false;
+            if (tempoEvento <= limite) f.anota(tempoEvento, j);
+        }
+        return true;
+    }
+
+    // Checkpoints -----------------------------------------------------------------------*/
+
+    // Formato: versão, as opções de 'OPCOES_CHECKPOINT' (se foi passada e o valor), limite,
+    // tempo, relógio, tamanho do próximo lote, as partículas (estado e contagem) e a fila na
+    // ordem interna do heap, de modo que a simulação retomada desempata os eventos igual.
+    void gravaEstado(DataOutputStream out, double limite, double tempo) throws IOException {
+        out.writeInt(VERSAO_CHECKPOINT);
+        for (String nome : OPCOES_CHECKPOINT) {
+            out.writeBoolean(temOpcao(nome));
+            if (temOpcao(nome)) out.writeUTF(opcoes.get(nome));
+        }
+        out.writeDouble(limite);
+        out.writeDouble(tempo);
+        out.writeDouble(t);
+        out.writeInt(tamanhoLote);
+        out.writeInt(particles.length);
+        for (Particle p : particles) {
+            out.writeDouble(p.rx()); out.writeDouble(p.ry());
+            out.writeDouble(p.vx()); out.writeDouble(p.vy());
+            out.writeDouble(p.radius()); out.writeDouble(p.mass());
+            out.writeInt(p.color().getRGB());
+            out.writeInt(p.count());
+        }
+        Object[] eventos = pq.toArray();
+        out.writeInt(eventos.length);
+        for (Object o : eventos) {
+            Event e = (Event) o;
+            out.writeDouble(e.time);
+            out.writeInt(e.a == null ? -1 : e.a.indice());
+            out.writeInt(e.b == null ? -1 : e.b.indice());
+            out.writeInt(e.countA);
+            out.writeInt(e.countB);
+            out.writeByte(e.tipo);
+        }
+    }
+
+    // Continua a simulação gravada em 'arquivo' até o tempo pedido originalmente, seguindo
+    // com os checkpoints no mesmo arquivo e com as opções gravadas nele; passar uma delas com
+    // outro valor é um erro. Sem índice espacial, o resultado é idêntico bit a bit ao de uma
+    // execução sem interrupção; com índice, a fila é refeita a partir do estado.
+    public static void retoma(Path arquivo) {
+
+        Asimov system;
+        double limite, tempo;
+        try (DataInputStream in = Checkpoint.abre(arquivo)) {
+            if (in.readInt() != VERSAO_CHECKPOINT) throw new IllegalArgumentException("Checkpoint de versão desconhecida: " + arquivo);
+            // As opções valem antes de criar o sistema, que escolhe o índice espacial a partir delas.
+            for (String nome : OPCOES_CHECKPOINT) {
+                String gravada = in.readBoolean() ? in.readUTF() : null;
+                String pedida = opcoes.get(nome);
+                if (pedida != null && !pedida.equals(gravada))
+                    throw new IllegalArgumentException("O checkpoint foi gravado " + (gravada == null ? "sem --" + nome : "com --" + nome + "=" + gravada)
+                                                       + " e não pode ser retomado com --" + nome + "=" + pedida);
+                if (gravada != null) opcoes.put(nome, gravada);
+            }
+            limite = in.readDouble();
+            tempo = in.readDouble();
+            double t = in.readDouble();
+            int tamanhoLote = in.readInt();
+
+            int n = in.readInt();
+            Particle[] particles = new Particle[n];
+            int[] counts = new int[n];
+            for (int i = 0; i < n; i++) {
+                double rx = in.readDouble(), ry = in.readDouble();
+                double vx = in.readDouble(), vy = in.readDouble();
+                double radius = in.readDouble(), mass = in.readDouble();
+                Color color = new Color(in.readInt());
+                counts[i] = in.readInt();
+                particles[i] = new Particle(rx, ry, vx, vy, radius, mass, color);
+            }
+            system = new Asimov(particles);
+            for (int i = 0; i < n; i++) {
+                Particle p = system.particles[i];
+                p.defineEstado(p.rx(), p.ry(), p.vx(), p.vy(), counts[i]);
+            }
+            system.t = t;
+            system.tamanhoLote = tamanhoLote;
+
+            Event[] eventos = new Event[in.readInt()];
+            for (int k = 0; k < eventos.length; k++) {
+                double time = in.readDouble();
+                int a = in.readInt(), b = in.readInt();
+                int countA = in.readInt(), countB = in.readInt();
+                int tipo = in.readByte();
+                eventos[k] = new Event(time, a < 0 ? null : system.particles[a], b < 0 ? null : system.particles[b], countA, countB, tipo);
+            }
+            system.pq = new MinPQ<Event>(eventos);
+            if (system.indice != null) system.repreve(limite);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Não foi possível ler " + arquivo, e);
+        }
+
+        // O monitor toma como referência o estado retomado.
+        if (system.monitor != null) system.monitor.inicia(system.particles);
+        system.checkpoint = new Checkpoint(arquivo, opcao("checkpoint-intervalo", 60.0));
+        system.continuaSemPrint(limite, tempo);
+        system.imprimePosicoes();
+        if (system.monitor != null) system.monitor.relatorio();
+    }
+
+    // Escreve 'rx ry' de cada partícula, com todos os dígitos.
+    private void imprimePosicoes() {
+        System.out.print(textoPosicoes());
+    }
+
+    String textoPosicoes() {
+        StringBuilder sb = new StringBuilder();
+        for (Particle p : particles) sb.append(p.rx()).append(' ').append(p.ry()).append('\n');
+        return sb.toString();
+    }
+
+    // Lê um cenário no formato de sempre: o número de partículas e, para cada uma, posição,
+    // velocidade, raio, massa e cor.
+    public static Particle[] leCenario(In in) {
+        return leCenario(in.readInt(), in::readDouble, in::readInt);
+    }
+
+    static Particle[] leCenario(int n, DoubleSupplier leDouble, IntSupplier leInt) {
+        Particle[] particles = new Particle[n];
+        for (int i = 0; i < n; i++) {
+            double rx     = leDouble.getAsDouble();
+            double ry     = leDouble.getAsDouble();
+            double vx     = leDouble.getAsDouble();
+            double vy     = leDouble.getAsDouble();
+            double radius = leDouble.getAsDouble();
+            double mass   = leDouble.getAsDouble();
+            int r         = leInt.getAsInt();
+            int g         = leInt.getAsInt();
+            int b         = leInt.getAsInt();
+            particles[i] = new Particle(rx, ry, vx, vy, radius, mass, new Color(r, g, b));
+        }
+        return particles;
+    }
+
+    // Liga o desenho em outra thread se a opção '--assincrono' foi passada.
+    private void iniciaDesenho() {
+        if (opcoes.containsKey("assincrono")) render = new Renderizador(particles, opcao("fps", 50.0));
+    }
+
+    private void encerraDesenho() {
+        if (render != null) render.encerra();
+        render = null;
+    }
+
     // Comanda o tipo de simulação no caso em que o usuário clica para determinar o tempo.
     public void simulateClique(double limite) {
 
+        iniciaDesenho();
         simulaClique(limite);
         double tempo = t;
         // Breve pausa, para que o estado atual possa ser analisado.
         StdDraw.pause(1500);
         for (int i = 0; i < particles.length; i++) particles[i].inverteVel();
         simulaTempo(limite, tempo);
+        encerraDesenho();
     }
 
     // Função muito semelhante a de cima, mas esta tem o tempo determinado como argumento.
     public void simulateTempo(double limite, double tempo) {
 
     	// Simula o código como 'CollisionSystem.java'.
+        iniciaDesenho();
         simulaTempo(limite, tempo);
         // Simula o retrocesso.
         StdDraw.pause(1500);
         for (int i = 0; i < particles.length; i++) particles[i].inverteVel();
         simulaTempo(limite, tempo);
+        encerraDesenho();
     }
 
     // Simulação do tipo que faz um gráfico e printa a distância média do estado
     // atual para o inicial.
-    public double[] simulateGrafico(double limite, double tempo) {
+    public Grafico simulateGrafico(double limite, double tempo) {
 
         // Guarda as posições iniciais.
         double[][] poso = new double[particles.length][2];
@@ -257,15 +903,49 @@ public class Asimov {
             poso[i][1] = particles[i].ry();
         }
 
-        ArrayList<Double> temp = simulaGrafico(limite, tempo, 0.0, poso);
+        // Um balde por pixel da janela de 600 pixels, que cobre as duas metades, e por padrão
+        // uma amostra por balde; '--amostra=dt' escolhe outro intervalo.
+        Grafico grafico = new Grafico(600, 2 * tempo / 600);
+        double intervalo = opcao("amostra", 2 * tempo / 600);
+        if (intervalo <= 0) throw new IllegalArgumentException("O intervalo entre amostras deve ser positivo");
+        simulaGrafico(limite, tempo, intervalo, 0.0, poso, grafico);
+        for (int i = 0; i < particles.length; i++) particles[i].inverteVel();
+        simulaGrafico(limite, tempo, intervalo, tempo, poso, grafico);
+
+        return grafico;
+    }
+
+    // Como 'simulateGrafico', mas com a entropia numa grade de '--celulas' por lado (10 por
+    // padrão), com '--setores' direções de velocidade (1 por padrão, só posições).
+    public Grafico simulateEntropia(double limite, double tempo) {
+
+        Entropia entropia = new Entropia((int) opcao("celulas", 10.0), (int) opcao("setores", 1.0));
+        Grafico grafico = new Grafico(600, 2 * tempo / 600);
+        double intervalo = opcao("amostra", 2 * tempo / 600);
+        if (intervalo <= 0) throw new IllegalArgumentException("O intervalo entre amostras deve ser positivo");
+        simulaEntropia(limite, tempo, intervalo, 0.0, entropia, grafico);
+        double ida = entropia.valor();
         for (int i = 0; i < particles.length; i++) particles[i].inverteVel();
-        ArrayList<Double> temp2 = simulaGrafico(limite, tempo, tempo, poso);
-        double[] dists = new double[temp.size() + temp2.size() + 1];
-        int j = 0;
-        for (Double d : temp) dists[j++] = d;
-        for (Double d : temp2) dists[j++] = d;
+        simulaEntropia(limite, tempo, intervalo, tempo, entropia, grafico);
 
-        return dists;
+        System.out.println("Entropia depois da ida: " + ida + ", depois da volta: " + entropia.valor() + " (máximo " + entropia.maximo() + ")");
+        return grafico;
+    }
+
+    // Desenha a série de distâncias. O mínimo e o máximo já foram calculados pelo 'grafico'.
+    public static void plota(Grafico grafico) {
+
+        double min = grafico.min(); double max = grafico.max();
+
+        if (max - min == 0.0) {
+            System.out.println("Mínimo e máximo são iguais: " + min);
+        }
+
+        else {
+            StdDraw.setCanvasSize(600,600);
+            grafico.desenha();
+            System.out.println("O mínimo vale: " + min + " e o máximo vale: " + max);
+        }
     }
 
     /*-----------------------------------------------------------------------------------*/
@@ -302,26 +982,7 @@ public class Asimov {
         for (int i = 0; i < n; i++) particles[i] = new Particle();
 
         Asimov system = new Asimov(particles);
-        double[] dists = system.simulateGrafico(10000, tempo);
-
-        double min = 0.0; double max = 0.0;
-
-        for (int i = 0; i < dists.length; i++) {
-            if (dists[i] > max) max = dists[i];
-        }
-
-        if (max - min == 0.0) {
-            System.out.println("Mínimo e máximo são iguais: " + min);
-        }
-
-        else {
-            StdDraw.setCanvasSize(600,600);
-            StdDraw.setXscale(0, dists.length - 1);
-            StdDraw.setYscale(min,max);
-            StdDraw.setPenRadius();
-            for (int i = 1; i < dists.length; i++) StdDraw.line(i-1, dists[i-1], i, dists[i]);
-            System.out.println("O mínimo vale: " + min + " e o máximo vale: " + max);
-        }
+        plota(system.simulateGrafico(10000, tempo));
     }
 
     // Recebe um txt semelhante àqueles de 'CollisionSystem.java'.
@@ -390,28 +1051,154 @@ public class Asimov {
         }
 
         Asimov system = new Asimov(particles);
-        double[] dists = system.simulateGrafico(10000, tempo);
+        plota(system.simulateGrafico(10000, tempo));
+    }
+
+    // Curva de entropia da entrada, na ida e na volta depois de inverter as velocidades.
+    public static void padraoEntropia(double tempo) {
+
+        Particle[] particles = leCenario(StdIn.readInt(), StdIn::readDouble, StdIn::readInt);
+        Asimov system = new Asimov(particles);
+        plota(system.simulateEntropia(10000, tempo));
+    }
+
+    // Estatísticas de transporte da entrada, a cada '--amostra' (por padrão um vigésimo do tempo).
+    public static void padraoTransporte(double tempo) {
+
+        Particle[] particles = leCenario(StdIn.readInt(), StdIn::readDouble, StdIn::readInt);
+        double intervalo = opcao("amostra", tempo / 20);
+        if (intervalo <= 0) throw new IllegalArgumentException("O intervalo entre amostras deve ser positivo");
+        Asimov system = new Asimov(particles);
+        system.simulaTransporte(10000, tempo, intervalo);
+    }
 
-        double min = 0.0; double max = 0.0;
+    // Mesma simulação de 'padraoTempo', mas os quadros vão para arquivos PNG em vez da tela,
+    // de modo que ela pode rodar em máquinas sem monitor. Não usa 'StdDraw' em momento algum.
+    public static void padraoQuadros(double tempo) {
 
-        for (int i = 0; i < dists.length; i++) {
-            if (dists[i] > max) max = dists[i];
+        System.setProperty("java.awt.headless", "true");
+        int n = StdIn.readInt();
+        Particle[] particles = new Particle[n];
+        for (int i = 0; i < n; i++) {
+            double rx     = StdIn.readDouble();
+            double ry     = StdIn.readDouble();
+            double vx     = StdIn.readDouble();
+            double vy     = StdIn.readDouble();
+            double radius = StdIn.readDouble();
+            double mass   = StdIn.readDouble();
+            int r         = StdIn.readInt();
+            int g         = StdIn.readInt();
+            int b         = StdIn.readInt();
+            Color color   = new Color(r, g, b);
+            particles[i] = new Particle(rx, ry, vx, vy, radius, mass, color);
         }
 
-        if (max - min == 0.0) {
-            System.out.println("Mínimo e máximo são iguais: " + min);
+        int resolucao = (int) opcao("resolucao", 600);
+        if (resolucao <= 0) throw new IllegalArgumentException("A resolução dos quadros deve ser positiva");
+        double intervalo = opcao("intervalo-quadro", 1.0 / HZ);
+        if (intervalo <= 0) throw new IllegalArgumentException("O intervalo entre quadros deve ser positivo");
+
+        Asimov system = new Asimov(particles);
+        system.exportador = new ExportaQuadros(new java.io.File(opcao("quadros", "quadros")), resolucao, intervalo,
+                                               (int) opcao("limiar-densidade", 20000),
+                                               Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        // As threads dos codificadores não são daemon: se a simulação falhar, o pool
+        // ainda precisa ser encerrado para que a JVM possa terminar.
+        try {
+            system.simulaTempo(10000, tempo);
+            for (int i = 0; i < system.particles.length; i++) system.particles[i].inverteVel();
+            system.simulaTempo(10000, tempo);
+        } finally {
+            system.exportador.encerra();
         }
+        System.out.println("Foram gravados " + system.exportador.quadros() + " quadros.");
+    }
 
-        else {
-            StdDraw.setCanvasSize(600,600);
-            StdDraw.setXscale(0, dists.length - 1);
-            StdDraw.setYscale(min,max);
-            StdDraw.setPenRadius();
-            for (int i = 1; i < dists.length; i++) StdDraw.line(i-1, dists[i-1], i, dists[i]);
-            System.out.println("O mínimo vale: " + min + " e o máximo vale: " + max);
+    // Como 'padraoSemPrint', mas com 'MotorForaDoHeap', e as posições são as do instante
+    // 'tempo' exato. Com '--mapeado=arquivo' o estado fica num arquivo mapeado em memória.
+    public static void foraDoHeap(double tempo) {
+        Particle[] particles = leCenario(StdIn.readInt(), StdIn::readDouble, StdIn::readInt);
+        Path arquivo = temOpcao("mapeado") ? Paths.get(opcao("mapeado", "")) : null;
+        try (MotorForaDoHeap motor = new MotorForaDoHeap(particles, 10000, arquivo)) {
+            motor.avancaAte(tempo);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < motor.tamanho(); i++) sb.append(motor.rx(i)).append(' ').append(motor.ry(i)).append('\n');
+            System.out.print(sb);
         }
     }
 
+    // Como 'foraDoHeap', mas com 'MotorPassoFixo', que avança passos fixos de '--dt'.
+    public static void passoFixo(double tempo) {
+        Particle[] particles = leCenario(StdIn.readInt(), StdIn::readDouble, StdIn::readInt);
+        MotorPassoFixo motor = new MotorPassoFixo(particles, opcao("dt", MotorPassoFixo.passoPadrao(particles)));
+        motor.avancaAte(tempo);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < motor.tamanho(); i++) sb.append(motor.rx(i)).append(' ').append(motor.ry(i)).append('\n');
+        System.out.print(sb);
+    }
+
+    // Roda os dois motores sobre a mesma entrada até 'tempo' e compara o tempo de execução de
+    // cada um, as posições finais e a deriva de energia do passo fixo. Sendo o sistema caótico,
+    // as posições só ficam próximas em tempos curtos; para esses, 'v' com '--candidato=pf'
+    // mostra em que colisão os dois se separam.
+    public static void comparaPassoFixo(double tempo) {
+        Particle[] particles = leCenario(StdIn.readInt(), StdIn::readDouble, StdIn::readInt);
+        int n = particles.length;
+
+        long inicio = System.nanoTime();
+        Asimov system = new Asimov(particles);
+        system.comeca(10000);
+        system.avancaAte(tempo, 10000);
+        double segundosEventos = (System.nanoTime() - inicio) / 1e9;
+        double[][] estado = new double[n][4];
+        system.estado(estado);
+
+        inicio = System.nanoTime();
+        MotorPassoFixo motor = new MotorPassoFixo(particles, opcao("dt", MotorPassoFixo.passoPadrao(particles)));
+        motor.avancaAte(tempo);
+        double segundosPassos = (System.nanoTime() - inicio) / 1e9;
+
+        double maior = 0, soma = 0, energia0 = 0;
+        for (int i = 0; i < n; i++) {
+            double d = Math.hypot(estado[i][0] - motor.rx(i), estado[i][1] - motor.ry(i));
+            maior = Math.max(maior, d);
+            soma += d;
+            energia0 += particles[i].kineticEnergy();
+        }
+        System.out.println("Eventos:      " + segundosEventos + " s");
+        System.out.println("Passo fixo:   " + segundosPassos + " s (dt = " + motor.passo() + ", " + motor.colisoes() + " colisões)");
+        System.out.println("Diferença de posição em t = " + tempo + ": média " + soma / n + ", maior " + maior);
+        System.out.println("Deriva relativa de energia do passo fixo: " + (motor.energia() - energia0) / energia0);
+    }
+
+    // Roda 'simulaSemPrint' sobre a entrada e escreve as posições finais. Com '--checkpoint'
+    // o estado vai sendo gravado, e 'java Asimov resume arquivo' continua de onde parou.
+    public static void padraoSemPrint(double tempo) {
+
+        int n = StdIn.readInt();
+        Particle[] particles = new Particle[n];
+        for (int i = 0; i < n; i++) {
+            double rx     = StdIn.readDouble();
+            double ry     = StdIn.readDouble();
+            double vx     = StdIn.readDouble();
+            double vy     = StdIn.readDouble();
+            double radius = StdIn.readDouble();
+            double mass   = StdIn.readDouble();
+            int r         = StdIn.readInt();
+            int g         = StdIn.readInt();
+            int b         = StdIn.readInt();
+            Color color   = new Color(r, g, b);
+            particles[i] = new Particle(rx, ry, vx, vy, radius, mass, color);
+        }
+
+        Asimov system = new Asimov(particles);
+        if (temOpcao("checkpoint"))
+            system.checkpoint = new Checkpoint(Paths.get(opcao("checkpoint", "")), opcao("checkpoint-intervalo", 60.0));
+        system.simulaSemPrint(10000, tempo);
+        system.imprimePosicoes();
+        if (system.monitor != null) system.monitor.relatorio();
+    }
+
     // Recebe um txt semelhante ao de padrão, mas sem as velocidades, de modo
     // que estas são selecionadas aleatoriamente.
     public static void randomicoClique(double divisor) {
@@ -423,8 +1210,8 @@ public class Asimov {
         for (int i = 0; i < n; i++) {
             double rx     = StdIn.readDouble();
             double ry     = StdIn.readDouble();
-            double vx     = Math.random()/divisor;
-            double vy     = Math.random()/divisor;
+            double vx     = Aleatorio.uniforme()/divisor;
+            double vy     = Aleatorio.uniforme()/divisor;
             double radius = StdIn.readDouble();
             double mass   = StdIn.readDouble();
             int r         = StdIn.readInt();
@@ -446,8 +1233,8 @@ public class Asimov {
         for (int i = 0; i < n; i++) {
             double rx     = StdIn.readDouble();
             double ry     = StdIn.readDouble();
-            double vx     = Math.random()/divisor;
-            double vy     = Math.random()/divisor;
+            double vx     = Aleatorio.uniforme()/divisor;
+            double vy     = Aleatorio.uniforme()/divisor;
             double radius = StdIn.readDouble();
             double mass   = StdIn.readDouble();
             int r         = StdIn.readInt();
@@ -467,8 +1254,8 @@ public class Asimov {
         for (int i = 0; i < n; i++) {
             double rx     = StdIn.readDouble();
             double ry     = StdIn.readDouble();
-            double vx     = Math.random()/divisor;
-            double vy     = Math.random()/divisor;
+            double vx     = Aleatorio.uniforme()/divisor;
+            double vy     = Aleatorio.uniforme()/divisor;
             double radius = StdIn.readDouble();
             double mass   = StdIn.readDouble();
             int r         = StdIn.readInt();
@@ -479,26 +1266,7 @@ public class Asimov {
         }
 
         Asimov system = new Asimov(particles);
-        double[] dists = system.simulateGrafico(10000, tempo);
-
-        double min = 0.0; double max = 0.0;
-
-        for (int i = 0; i < dists.length; i++) {
-            if (dists[i] > max) max = dists[i];
-        }
-
-        if (max - min == 0.0) {
-            System.out.println("Mínimo e máximo são iguais: " + min);
-        }
-
-        else {
-            StdDraw.setCanvasSize(600,600);
-            StdDraw.setXscale(0, dists.length - 1);
-            StdDraw.setYscale(min,max);
-            StdDraw.setPenRadius();
-            for (int i = 1; i < dists.length; i++) StdDraw.line(i-1, dists[i-1], i, dists[i]);
-            System.out.println("O mínimo vale: " + min + " e o máximo vale: " + max);
-        }
+        plota(system.simulateGrafico(10000, tempo));
     }
 
     /*-----------------------------------------------------------------------------------*/
@@ -510,17 +1278,23 @@ public class Asimov {
     public double[][] posB (double limite, double tempo) {
 
     	double[][] pos = new double[particles.length][2];
+        posB(limite, tempo, pos);
+    	return pos;
+    }
+
+    // Mesma coisa, mas escreve as posições em 'pos', para que as buscas não aloquem nada novo.
+    public void posB (double limite, double tempo, double[][] pos) {
+
         simulaSemPrint(limite, tempo);
     	for (int i = 0; i < particles.length; i++) {
     		pos[i][0] = particles[i].rx();
     		pos[i][1] = particles[i].ry();
     	}
-    	return pos;
     }
 
     // É usada para fazer um número aleatório entre -1 e 1, de modo a passar o sinal.
     public static int sinal() {
-		double prob = Math.random();
+		double prob = Aleatorio.uniforme();
         int sinal = 1;
         if (sinal <= 0.5) sinal = -1;
         return sinal;
@@ -531,32 +1305,79 @@ public class Asimov {
     // diferença que será aplicada para deixar os dois sistemas diferentes.
     public static double simulaBorboleta(Particle[] particles, Particle[] particles2, double limiar, double delta) {
 
-        double tempoAnterior = 0.0; double tempo = 100.0;
-        while (Math.abs(tempo - tempoAnterior) > delta) {
+        return busca(0.0, 100.0, delta, tempo -> {
+            // Um único sistema por thread é reiniciado em cada configuração, em vez de criarmos
+            // dois por sonda.
+            Asimov system = motor(particles);
+            double[][][] pos = posicoes(particles.length);
 
-            Asimov system = new Asimov(particles);
-            double[][] pos = system.posB(10000, tempo);
+            system.reinicia(particles);
+            system.posB(10000, tempo, pos[0]);
 
-            Asimov system2 = new Asimov(particles2);
-            double[][] pos2 = system2.posB(10000, tempo);
+            system.reinicia(particles2);
+            system.posB(10000, tempo, pos[1]);
 
-            double dif = dif(pos, pos2);
+            return !(dif(pos[0], pos[1]) > limiar);
+        });
+    }
 
-            if (dif > limiar) tempo = (tempoAnterior + tempo)/2;
-            else {
-                tempoAnterior = tempo;
-                tempo = 2 * tempo;
+    // Busca do tempo em que o sistema diverge, comum a 'simulaBorboleta' e 'simulaDiverge'. Se
+    // o sistema ainda 'cabe' no limite em 'tempo', o intervalo avança e dobra; senão o fim dele
+    // volta para o meio. Cada sonda é uma simulação inteira e independente das outras, então,
+    // com '--sondas=k', cada rodada avalia em paralelo as sondas dos próximos log2(k + 1)
+    // níveis da árvore de decisões e depois segue o caminho que os resultados indicam. O
+    // resultado é sempre o da busca sequencial, que é o caso k = 1. Um tempo já sondado não
+    // é simulado de novo.
+    private static double busca(double tempoAnterior, double tempo, double delta, DoublePredicate cabe) {
+        int niveis = 31 - Integer.numberOfLeadingZeros(Math.max(1, (int) opcao("sondas", 1.0)) + 1);
+        HashMap<Double, Boolean> sondados = new HashMap<Double, Boolean>();
+        ArrayList<Double> pendentes = new ArrayList<Double>();
+
+        while (Math.abs(tempo - tempoAnterior) > delta) {
+            pendentes.clear();
+            sondas(tempoAnterior, tempo, delta, niveis, sondados, pendentes);
+            boolean[] cabem = new boolean[pendentes.size()];
+            IntStream.range(0, cabem.length).parallel().forEach(i -> cabem[i] = cabe.test(pendentes.get(i)));
+            for (int i = 0; i < cabem.length; i++) sondados.put(pendentes.get(i), cabem[i]);
+
+            for (int k = 0; k < niveis && Math.abs(tempo - tempoAnterior) > delta; k++) {
+                if (sondados.get(tempo)) {
+                    tempoAnterior = tempo;
+                    tempo = 2 * tempo;
+                }
+                else tempo = (tempo + tempoAnterior)/2;
             }
         }
         return tempo;
     }
 
+    // Junta em 'pendentes' os tempos ainda não sondados da árvore de decisões a partir do
+    // intervalo (tempoAnterior, tempo), até 'niveis' níveis.
+    private static void sondas(double tempoAnterior, double tempo, double delta, int niveis,
+                               HashMap<Double, Boolean> sondados, ArrayList<Double> pendentes) {
+        if (niveis == 0 || Math.abs(tempo - tempoAnterior) <= delta) return;
+        if (!sondados.containsKey(tempo) && !pendentes.contains(tempo)) pendentes.add(tempo);
+        sondas(tempo, 2 * tempo, delta, niveis - 1, sondados, pendentes);
+        sondas(tempoAnterior, (tempo + tempoAnterior)/2, delta, niveis - 1, sondados, pendentes);
+    }
+
+    // Posições usadas pelas sondas de cada thread, com lugar para duas configurações.
+    private static final ThreadLocal<double[][][]> posicoes = new ThreadLocal<double[][][]>();
+
+    private static double[][][] posicoes(int n) {
+        double[][][] pos = posicoes.get();
+        if (pos == null || pos[0].length != n) {
+            pos = new double[2][n][2];
+            posicoes.set(pos);
+        }
+        return pos;
+    }
+
     // Coordena a criação das duas diferentes configurações e chama a simulação.
     public static double borboleta(double limiar, double dif, double delta) {
 
         int n = StdIn.readInt();
         Particle[] particles = new Particle[n];
-        Particle[] particles2 = new Particle[n];
         for (int i = 0; i < n; i++) {
 
             double rx     = StdIn.readDouble();
@@ -569,17 +1390,32 @@ public class Asimov {
             int g         = StdIn.readInt();
             int b         = StdIn.readInt();
             Color color   = new Color(r, g, b);
+            particles[i] = new Particle(rx, ry, vx, vy, radius, mass, color);
+        }
+
+        return borboleta(particles, limiar, dif, delta);
+    }
 
-            double rx2    = rx + sinal() * dif * Math.random();
-            double ry2    = ry + sinal() * dif * Math.random();
-            double vx2    = vx + sinal() * dif * Math.random()/200;
-            double vy2    = vy + sinal() * dif * Math.random()/200;
+    // Perturba uma cópia de 'particles' e chama a simulação. É o que 'Lote' usa, com as
+    // partículas já lidas do cenário.
+    public static double borboleta(Particle[] particles, double limiar, double dif, double delta) {
 
-            particles[i] = new Particle(rx, ry, vx, vy, radius, mass, color);
-            particles2[i] = new Particle(rx2, ry2, vx2, vy2, radius, mass, color);
+        Cache cache = new Cache("b", particles, true, limiar, dif, delta);
+        double[] guardado = cache.busca();
+        if (guardado != null) return guardado[0];
+
+        Particle[] particles2 = new Particle[particles.length];
+        for (int i = 0; i < particles.length; i++) {
+            Particle p = particles[i];
+            double rx2    = p.rx() + sinal() * dif * Aleatorio.uniforme();
+            double ry2    = p.ry() + sinal() * dif * Aleatorio.uniforme();
+            double vx2    = p.vx() + sinal() * dif * Aleatorio.uniforme()/200;
+            double vy2    = p.vy() + sinal() * dif * Aleatorio.uniforme()/200;
+            particles2[i] = new Particle(rx2, ry2, vx2, vy2, p.radius(), p.mass(), p.color());
         }
 
         double t = simulaBorboleta(particles, particles2, limiar, delta);
+        cache.guarda(t);
         return t;
     }
 
@@ -591,18 +1427,18 @@ public class Asimov {
 
         for (int i = 0; i < n; i++) {
 
-            double rx     = Math.random();
-            double ry     = Math.random();
-            double vx     = Math.random()/200;
-            double vy     = Math.random()/200;
+            double rx     = Aleatorio.uniforme();
+            double ry     = Aleatorio.uniforme();
+            double vx     = Aleatorio.uniforme()/200;
+            double vy     = Aleatorio.uniforme()/200;
             double radius = 0.02;
             double mass   = 0.5;
             Color color  = Color.BLACK;
 
-            double rx2    = rx + sinal() * dif * Math.random();
-            double ry2    = ry + sinal() * dif * Math.random();
-            double vx2    = vx + sinal() * dif * Math.random()/200;
-            double vy2    = vy + sinal() * dif * Math.random()/200;
+            double rx2    = rx + sinal() * dif * Aleatorio.uniforme();
+            double ry2    = ry + sinal() * dif * Aleatorio.uniforme();
+            double vx2    = vx + sinal() * dif * Aleatorio.uniforme()/200;
+            double vy2    = vy + sinal() * dif * Aleatorio.uniforme()/200;
 
             particles[i] = new Particle(rx, ry, vx, vy, radius, mass, color);
             particles2[i] = new Particle(rx2, ry2, vx2, vy2, radius, mass, color);
@@ -623,16 +1459,16 @@ public class Asimov {
         // Cria configurações fixas, de forma que só o limiar se altera na execução.
         for (int i = 0; i < n; i ++) {
             double rx     = StdIn.readDouble();
-            double rx2    = rx + sinal() * dif * Math.random();
+            double rx2    = rx + sinal() * dif * Aleatorio.uniforme();
 
             double ry     = StdIn.readDouble();
-            double ry2    = ry + sinal() * dif * Math.random();
+            double ry2    = ry + sinal() * dif * Aleatorio.uniforme();
 
             double vx     = StdIn.readDouble();
-            double vx2    = vx + sinal() * dif * Math.random()/200;
+            double vx2    = vx + sinal() * dif * Aleatorio.uniforme()/200;
 
             double vy     = StdIn.readDouble();
-            double vy2    = vy + sinal() * dif * Math.random()/200;
+            double vy2    = vy + sinal() * dif * Aleatorio.uniforme()/200;
 
             double radius = StdIn.readDouble();
             double mass   = StdIn.readDouble();
@@ -644,13 +1480,18 @@ public class Asimov {
             particles2[i] = new Particle(rx2, ry2, vx2, vy2, radius, mass, color);
         }
 
+        Cache cache = new Cache("bl", particles, true, N, limiar, dif, fator, delta);
+        double[] guardados = cache.busca();
         double[] tempos = new double[N];
 
-        for (int i = 0; i < N; i++) {
-            tempos[i] = simulaBorboleta(particles, particles2, limiar, delta);
-            System.out.println("O tempo " + i + " vale: " + tempos[i]);
-            limiar *= fator;
+        try (Resultados resultados = Resultados.abre("bl", "limiar")) {
+            for (int i = 0; i < N; i++) {
+                tempos[i] = guardados != null ? guardados[i] : simulaBorboleta(particles, particles2, limiar, delta);
+                resultados.registra(i, tempos[i], limiar);
+                limiar *= fator;
+            }
         }
+        if (guardados == null) cache.guarda(tempos);
 
         double min = tempos[0]; double max = tempos[N-1];
 
@@ -677,18 +1518,18 @@ public class Asimov {
         // Cria configurações aleatórias, de forma que só o limiar vai alterar durante a execução.
         for (int i = 0; i < n; i++) {
 
-            double rx     = Math.random();
-            double ry     = Math.random();
-            double vx     = Math.random()/200;
-            double vy     = Math.random()/200;
+            double rx     = Aleatorio.uniforme();
+            double ry     = Aleatorio.uniforme();
+            double vx     = Aleatorio.uniforme()/200;
+            double vy     = Aleatorio.uniforme()/200;
             double radius = 0.02;
             double mass   = 0.5;
             Color color  = Color.BLACK;
 
-            double rx2    = rx + sinal() * dif * Math.random();
-            double ry2    = ry + sinal() * dif * Math.random();
-            double vx2    = vx + sinal() * dif * Math.random()/200;
-            double vy2    = vy + sinal() * dif * Math.random()/200;
+            double rx2    = rx + sinal() * dif * Aleatorio.uniforme();
+            double ry2    = ry + sinal() * dif * Aleatorio.uniforme();
+            double vx2    = vx + sinal() * dif * Aleatorio.uniforme()/200;
+            double vy2    = vy + sinal() * dif * Aleatorio.uniforme()/200;
 
             particles[i] = new Particle(rx, ry, vx, vy, radius, mass, color);
             particles2[i] = new Particle(rx2, ry2, vx2, vy2, radius, mass, color);
@@ -696,10 +1537,12 @@ public class Asimov {
 
         double[] tempos = new double[N];
 
-        for (int i = 0; i < N; i++) {
-            tempos[i] = simulaBorboleta(particles, particles2, limiar, delta);
-            System.out.println("O tempo " + i + " vale: " + tempos[i]);
-            limiar *= fator;
+        try (Resultados resultados = Resultados.abre("bla", "limiar")) {
+            for (int i = 0; i < N; i++) {
+                tempos[i] = simulaBorboleta(particles, particles2, limiar, delta);
+                resultados.registra(i, tempos[i], limiar);
+                limiar *= fator;
+            }
         }
 
         double min = tempos[0]; double max = tempos[N-1];
@@ -722,31 +1565,53 @@ public class Asimov {
     // Com isso analisamos os tempos que demoram para elas diferirem baseados em determinado limiar.
     public static void borboletaN (int N, int n, double limiar, double dif, double delta) {
 
-        double[] tempos = new double[N];
-
-        for (int i = 0; i < N; i++) {
-            tempos[i] = borboletaAleatoria(n, limiar, dif, delta);
-            System.out.println("O tempo " + i + " vale: " + tempos[i]);
+        // No máximo N ensaios; com '--precisao', paramos antes se o intervalo de confiança da
+        // média já estiver estreito o bastante.
+        double precisao = opcao("precisao", 0.0);
+        Estatistica estatistica = new Estatistica();
+        Grafico grafico = new Grafico(600);
+
+        try (Resultados resultados = Resultados.abre("bn", "N", "n", "limiar", "dif", "delta")) {
+            for (int i = 0; i < N && !estatistica.bastante(precisao); i++) {
+                double tempo = borboletaAleatoria(n, limiar, dif, delta);
+                resultados.registra(i, tempo, N, n, limiar, dif, delta);
+                estatistica.adiciona(tempo);
+                grafico.adiciona(tempo);
+            }
         }
 
-        double max = tempos[0]; double min = tempos[0];
+        plota(grafico);
+        System.out.print(estatistica.resumo());
+    }
 
-        for (int i = 0; i < N; i++) {
-            if (tempos[i] > max) max = tempos[i];
-            else if (tempos[i] < min) min = tempos[i];
-        }
+    // Equivalente a rodar 'borboleta' K-1 vezes sobre a mesma entrada, mas as K-1 cópias
+    // perturbadas avançam junto com a original numa única 'Replicas'. Em vez da busca
+    // binária, o tempo é medido na primeira vez em que a diferença passa do limiar, numa
+    // grade de instantes espaçados por 'passo'.
+    public static void borboletaReplicas (int K, double limiar, double dif, double passo, double tempoMax) {
 
-        if (max - min == 0.0) {
-            System.out.println("Mínimo e máximo são iguais: " + min);
+        int n = StdIn.readInt();
+        Particle[] particles = new Particle[n];
+        for (int i = 0; i < n; i++) {
+            double rx     = StdIn.readDouble();
+            double ry     = StdIn.readDouble();
+            double vx     = StdIn.readDouble();
+            double vy     = StdIn.readDouble();
+            double radius = StdIn.readDouble();
+            double mass   = StdIn.readDouble();
+            int r         = StdIn.readInt();
+            int g         = StdIn.readInt();
+            int b         = StdIn.readInt();
+            Color color   = new Color(r, g, b);
+            particles[i] = new Particle(rx, ry, vx, vy, radius, mass, color);
         }
 
-        else {
-            StdDraw.setCanvasSize(600,600);
-            StdDraw.setXscale(0, N-1);
-            StdDraw.setYscale(min,max);
-            StdDraw.setPenRadius();
-            for (int i = 1; i < N; i++) StdDraw.line(i-1, tempos[i-1], i, tempos[i]);
-            System.out.println("O mínimo vale: " + min + " e o máximo vale: " + max);
+        Replicas replicas = Replicas.perturbadas(particles, K, dif);
+        replicas.inicia(10000);
+        double[] tempos = replicas.divergencias(limiar, passo, tempoMax);
+
+        try (Resultados resultados = Resultados.abre("br", "K", "limiar", "dif", "passo", "tempoMax")) {
+            for (int i = 1; i < K; i++) resultados.registra(i, tempos[i], K, limiar, dif, passo, tempoMax);
         }
     }
 
@@ -757,15 +1622,20 @@ public class Asimov {
     // Simula uma partícula e a retrocede, depois guarda as suas posições.
     public double[][] posD (double limite, double tempo) {
 
+    	double[][] pos = new double[particles.length][2];
+        posD(limite, tempo, pos);
+    	return pos;
+    }
+
+    public void posD (double limite, double tempo, double[][] pos) {
+
     	simulaSemPrint(limite, tempo);
         for (int i = 0; i < particles.length; i++) particles[i].inverteVel();
         simulaSemPrint(limite, tempo);
-    	double[][] pos = new double[particles.length][2];
     	for (int i = 0; i < particles.length; i++) {
     		pos[i][0] = particles[i].rx();
     		pos[i][1] = particles[i].ry();
     	}
-    	return pos;
     }
 
     /*
@@ -782,18 +1652,14 @@ public class Asimov {
     */
     public static double simulaDiverge(Particle[] particles, double[][] poso, double tempoAnterior, double tempo, double eps, double delta) {
 
-        while (Math.abs(tempo - tempoAnterior) > delta) {
-        	Asimov system = new Asimov(particles);
-        	double[][] pos = system.posD(10000, tempo);
-        	double dif = dif(poso, pos);
-        	// O tempo para divergir é maior que o que estamos analisando;
-        	if (dif < eps) {
-                tempoAnterior = tempo;
-                tempo = 2 * tempo;
-            }
-        	else tempo = (tempo + tempoAnterior)/2;
-        }
-        return tempo;
+        return busca(tempoAnterior, tempo, delta, t -> {
+            Asimov system = motor(particles);
+            double[][] pos = posicoes(particles.length)[0];
+        	system.reinicia(particles);
+        	system.posD(10000, t, pos);
+        	// Se cabe, o tempo para divergir é maior que o que estamos analisando.
+        	return dif(poso, pos) < eps;
+        });
     }
 
     // Descobre quanto tempo um sistema demora para divergir de determinado épislon,
@@ -816,6 +1682,16 @@ public class Asimov {
             particles[i] = new Particle(rx, ry, vx, vy, radius, mass, color);
         }
 
+        return diverge(particles, eps, delta);
+    }
+
+    // O mesmo, com as partículas já lidas.
+    public static double diverge(Particle[] particles, double eps, double delta) {
+
+        Cache cache = new Cache("d", particles, false, eps, delta);
+        double[] guardado = cache.busca();
+        if (guardado != null) return guardado[0];
+
         // Guarda as posições iniciais.
         double[][] poso = new double[particles.length][2];
         for (int i = 0; i < particles.length; i++) {
@@ -824,6 +1700,7 @@ public class Asimov {
         }
 
         double t = simulaDiverge(particles, poso, 0.0, 100.0, eps, delta);
+        cache.guarda(t);
         return t;
     }
 
@@ -874,13 +1751,18 @@ public class Asimov {
             poso[i][1] = particles[i].ry();
         }
 
+        Cache cache = new Cache("de", particles, false, N, eps, fator, delta);
+        double[] guardados = cache.busca();
         double[] tempos = new double[N];
 
-        for (int i = 0; i < N; i++) {
-            tempos[i] = simulaDiverge(particles, poso, 0.0, 100.0, eps, delta);
-            System.out.println("O tempo " + i + " vale: " + tempos[i]);
-            eps *= fator;
+        try (Resultados resultados = Resultados.abre("de", "eps")) {
+            for (int i = 0; i < N; i++) {
+                tempos[i] = guardados != null ? guardados[i] : simulaDiverge(particles, poso, 0.0, 100.0, eps, delta);
+                resultados.registra(i, tempos[i], eps);
+                eps *= fator;
+            }
         }
+        if (guardados == null) cache.guarda(tempos);
 
         double min = tempos[0]; double max = tempos[N-1];
 
@@ -914,10 +1796,12 @@ public class Asimov {
 
         double[] tempos = new double[N];
 
-        for (int i = 0; i < N; i++) {
-            tempos[i] = simulaDiverge(particles, poso, 0.0, 100.0, eps, delta);
-            System.out.println("O tempo " + i + " vale: " + tempos[i]);
-            eps *= fator;
+        try (Resultados resultados = Resultados.abre("dea", "eps")) {
+            for (int i = 0; i < N; i++) {
+                tempos[i] = simulaDiverge(particles, poso, 0.0, 100.0, eps, delta);
+                resultados.registra(i, tempos[i], eps);
+                eps *= fator;
+            }
         }
 
         double min = tempos[0]; double max = tempos[N-1];
@@ -940,38 +1824,70 @@ public class Asimov {
     // Aqui o épsilon é fixo e as configurações variam.
     public static void divergeN (int N, int n, double eps, double delta) {
 
-        double[] tempos = new double[N];
-
-        for (int i = 0; i < N; i++) {
-            tempos[i] = divergeAleatorio(n, eps, delta);
-            System.out.println("O tempo " + i + " vale: " + tempos[i]);
+        // No máximo N ensaios; com '--precisao', paramos antes se o intervalo de confiança da
+        // média já estiver estreito o bastante.
+        double precisao = opcao("precisao", 0.0);
+        Estatistica estatistica = new Estatistica();
+        Grafico grafico = new Grafico(600);
+
+        try (Resultados resultados = Resultados.abre("dn", "N", "n", "eps", "delta")) {
+            for (int i = 0; i < N && !estatistica.bastante(precisao); i++) {
+                double tempo = divergeAleatorio(n, eps, delta);
+                resultados.registra(i, tempo, N, n, eps, delta);
+                estatistica.adiciona(tempo);
+                grafico.adiciona(tempo);
+            }
         }
 
-        double max = tempos[0]; double min = tempos[0];
+        plota(grafico);
+        System.out.print(estatistica.resumo());
+    }
 
-        for (int i = 0; i < N; i++) {
-            if (tempos[i] > max) max = tempos[i];
-            else if (tempos[i] < min) min = tempos[i];
-        }
+    /*-----------------------------------------------------------------------------------*/
 
-        if (max - min == 0.0) {
-            System.out.println("Mínimo e máximo são iguais: " + min);
-        }
+    // Opções de linha de comando ---------------------------------------------------------*/
 
-        else {
-            StdDraw.setCanvasSize(600,600);
-            StdDraw.setXscale(0, N-1);
-            StdDraw.setYscale(min,max);
-            StdDraw.setPenRadius();
-            for (int i = 1; i < N; i++) StdDraw.line(i-1, tempos[i-1], i, tempos[i]);
-            System.out.println("O mínimo vale: " + min + " e o máximo vale: " + max);
+    // Devolve o valor de '--nome=valor', ou 'padrao' se a opção não foi passada.
+    static String opcao(String nome, String padrao) {
+        String valor = opcoes.get(nome);
+        return valor == null ? padrao : valor;
+    }
+
+    static double opcao(String nome, double padrao) {
+        String valor = opcoes.get(nome);
+        return valor == null ? padrao : Double.parseDouble(valor);
+    }
+
+    static boolean temOpcao(String nome) {
+        return opcoes.containsKey(nome);
+    }
+
+    // Separa as opções '--nome=valor' (ou só '--nome') dos argumentos posicionais.
+    static String[] separaOpcoes(String[] args) {
+        ArrayList<String> resto = new ArrayList<String>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {resto.add(arg); continue;}
+            int igual = arg.indexOf('=');
+            if (igual < 0) opcoes.put(arg.substring(2), "");
+            else           opcoes.put(arg.substring(2, igual), arg.substring(igual + 1));
         }
+        return resto.toArray(new String[0]);
     }
 
     /*-----------------------------------------------------------------------------------*/
 
     public static void main(String[] args) {
 
+        args = separaOpcoes(args);
+
+        // Com '--semente', as perturbações e as configurações aleatórias se repetem.
+        if (temOpcao("semente")) {
+            long semente = Long.parseLong(opcao("semente", ""));
+            Aleatorio.semeia(semente);
+            StdRandom.setSeed(semente);
+        }
+        if (temOpcao("telemetria")) Telemetria.liga((int) opcao("telemetria", 8080.0));
+
     	// Guarda o modo que vamos fazer a chamada.
     	String modo = args[0];
 
@@ -981,6 +1897,7 @@ public class Asimov {
         else if (modo.equals("bl")) borboletaLimiar(Integer.parseInt(args[1]), Double.parseDouble(args[2]), Double.parseDouble(args[3]), Double.parseDouble(args[4]), Double.parseDouble(args[5]));
         else if (modo.equals("bla")) borboletaLimiarAleatorio(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Double.parseDouble(args[3]), Double.parseDouble(args[4]), Double.parseDouble(args[5]), Double.parseDouble(args[6]));
         else if (modo.equals("bn")) borboletaN(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Double.parseDouble(args[3]), Double.parseDouble(args[4]), Double.parseDouble(args[5]));
+        else if (modo.equals("br")) borboletaReplicas(Integer.parseInt(args[1]), Double.parseDouble(args[2]), Double.parseDouble(args[3]), Double.parseDouble(args[4]), Double.parseDouble(args[5]));
 
         // Modos de análise de comportamento divergente.
         else if (modo.equals("d")) System.out.println("O tempo até o sistema divergir vale: " + diverge(Double.parseDouble(args[1]), Double.parseDouble(args[2])));
@@ -998,10 +1915,23 @@ public class Asimov {
         else if (modo.equals("at")) aleatorioTempo(Integer.parseInt(args[1]), Double.parseDouble(args[2]));
         else if (modo.equals("pt")) padraoTempo(Double.parseDouble(args[1]));
         else if (modo.equals("rt")) randomicoTempo(Double.parseDouble(args[1]), Double.parseDouble(args[2]));
+        else if (modo.equals("q")) padraoQuadros(Double.parseDouble(args[1]));
+
+        // Simulações longas, com checkpoints.
+        else if (modo.equals("s")) padraoSemPrint(Double.parseDouble(args[1]));
+        else if (modo.equals("resume")) retoma(Paths.get(args[1]));
+        else if (modo.equals("ly")) Lyapunov.estima(Double.parseDouble(args[1]), Double.parseDouble(args[2]), Integer.parseInt(args[3]));
+        else if (modo.equals("oh")) foraDoHeap(Double.parseDouble(args[1]));
+        else if (modo.equals("pf")) passoFixo(Double.parseDouble(args[1]));
+        else if (modo.equals("cpf")) comparaPassoFixo(Double.parseDouble(args[1]));
+        else if (modo.equals("v"))  Verificacao.verifica(Double.parseDouble(args[1]), Double.parseDouble(args[2]));
+        else if (modo.equals("lote")) Lote.executa(Paths.get(args[1]), (int) opcao("threads", Runtime.getRuntime().availableProcessors()));
 
         // Modos baseados em gráficos.
         else if (modo.equals("ag")) aleatorioGrafico(Integer.parseInt(args[1]), Double.parseDouble(args[2]));
         else if (modo.equals("pg")) padraoGrafico(Double.parseDouble(args[1]));
+        else if (modo.equals("en")) padraoEntropia(Double.parseDouble(args[1]));
+        else if (modo.equals("tr")) padraoTransporte(Double.parseDouble(args[1]));
         else if (modo.equals("rg")) randomicoGrafico(Double.parseDouble(args[1]), Double.parseDouble(args[2]));
     }
 }
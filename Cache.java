@@ -0,0 +1,169 @@
+/******************************************************************************
+ *  Compilação:  javac Cache.java
+ *  Execução:    java Asimov d 0.01 1 --cache=.cache < input.txt
+ *
+ *  Dependencies: Asimov.java Aleatorio.java Particle.java
+ *
+ *  Guarda em disco os resultados dos experimentos 'b', 'd', 'bl' e 'de'.
+ *  A chave é o SHA-256 do cenário já lido, do modo, dos parâmetros, das
+ *  opções que mudam a simulação, da versão do motor e da semente, então um
+ *  experimento repetido devolve o resultado guardado na hora. Experimentos
+ *  com perturbações aleatórias só são guardados quando há '--semente'.
+ *
+ *  Opções:
+ *      --cache=pasta     liga o cache, guardando um arquivo por resultado
+ *      --cache-max=MB    tamanho máximo da pasta (64 MB por padrão); os
+ *                        resultados usados há mais tempo saem primeiro
+ *      --cache-ignora    não lê nem grava
+ *      --cache-renova    não lê, mas grava o resultado novo
+ ******************************************************************************/
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class Cache {
+
+    // Opções que mudam os resultados e por isso entram na chave.
+    private static final String[] OPCOES = {"indice", "horizonte", "paralelo-inicial", "lote"};
+
+    private final Path arquivo;          // null quando o cache está desligado para este experimento.
+    private final boolean le;
+
+    // 'aleatorio' diz se o experimento sorteia perturbações, caso em que só é guardado com semente.
+    // Nos demais a semente não muda nada e fica fora da chave.
+    public Cache(String modo, Particle[] particles, boolean aleatorio, double... parametros) {
+        Long semente = aleatorio ? Aleatorio.semente() : null;
+        if (!Asimov.temOpcao("cache") || Asimov.temOpcao("cache-ignora") || (aleatorio && semente == null)) {
+            arquivo = null;
+            le = false;
+            return;
+        }
+        arquivo = Paths.get(Asimov.opcao("cache", "")).resolve(chave(modo, particles, semente, parametros));
+        le = !Asimov.temOpcao("cache-renova");
+    }
+
+    private static String chave(String modo, Particle[] particles, Long semente, double[] parametros) {
+        MessageDigest sha;
+        try {sha = MessageDigest.getInstance("SHA-256");}
+        catch (NoSuchAlgorithmException e) {throw new IllegalStateException(e);}
+
+        ByteBuffer b = ByteBuffer.allocate(64);
+        b.putInt(Asimov.VERSAO_MOTOR).put((byte) (semente == null ? 0 : 1)).putLong(semente == null ? 0 : semente).putInt(parametros.length);
+        sha.update(b.array(), 0, b.position());
+        texto(sha, modo);
+        for (double p : parametros) numero(sha, p);
+        for (String opcao : OPCOES) texto(sha, Asimov.opcao(opcao, ""));
+
+        b.clear().putInt(particles.length);
+        sha.update(b.array(), 0, b.position());
+        for (Particle p : particles) {
+            b.clear();
+            b.putDouble(p.rx()).putDouble(p.ry()).putDouble(p.vx()).putDouble(p.vy());
+            b.putDouble(p.radius()).putDouble(p.mass()).putInt(p.color().getRGB());
+            sha.update(b.array(), 0, b.position());
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte x : sha.digest()) hex.append(String.format("%02x", x));
+        return hex.toString();
+    }
+
+    private static void texto(MessageDigest sha, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        numero(sha, bytes.length);
+        sha.update(bytes);
+    }
+
+    private static void numero(MessageDigest sha, double x) {
+        sha.update(ByteBuffer.allocate(8).putDouble(x).array());
+    }
+
+    // Devolve o resultado guardado, ou null se não houver. Um resultado lido passa a ser o
+    // usado mais recentemente.
+    public double[] busca() {
+        if (arquivo == null || !le || !Files.isRegularFile(arquivo)) return null;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(arquivo))) {
+            double[] valores = new double[in.readInt()];
+            for (int i = 0; i < valores.length; i++) valores[i] = in.readDouble();
+            // Outro processo pode ter apagado o arquivo depois da leitura; os valores continuam válidos.
+            try {Files.setLastModifiedTime(arquivo, FileTime.fromMillis(System.currentTimeMillis()));}
+            catch (NoSuchFileException e) {}
+            return valores;
+        }
+        catch (IOException e) {
+            // Um arquivo corrompido é tratado como ausente e será regravado.
+            return null;
+        }
+    }
+
+    public void guarda(double... valores) {
+        if (arquivo == null) return;
+        try {
+            Files.createDirectories(arquivo.getParent());
+            // Um temporário por gravação, para que processos com a mesma chave não escrevam no mesmo arquivo.
+            Path temporario = Files.createTempFile(arquivo.getParent(), arquivo.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporario))) {
+                    out.writeInt(valores.length);
+                    for (double v : valores) out.writeDouble(v);
+                }
+                Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(temporario);
+            }
+            limita(arquivo.getParent(), (long) (Asimov.opcao("cache-max", 64.0) * 1024 * 1024));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Não foi possível gravar " + arquivo, e);
+        }
+    }
+
+    // Apaga os resultados usados há mais tempo até a pasta caber em 'maximo' bytes. Arquivos
+    // que somem no meio do caminho (apagados por outro processo) são simplesmente ignorados.
+    private static void limita(Path pasta, long maximo) throws IOException {
+        List<Path> arquivos = new ArrayList<Path>();
+        try (Stream<Path> s = Files.list(pasta)) {
+            s.filter(p -> Files.isRegularFile(p) && !p.toString().endsWith(".tmp")).forEach(arquivos::add);
+        }
+        Map<Path, Long> tamanhos = new HashMap<Path, Long>();
+        long total = 0;
+        for (Path p : arquivos) {
+            long t;
+            try {t = Files.size(p);}
+            catch (NoSuchFileException e) {continue;}
+            tamanhos.put(p, t);
+            total += t;
+        }
+        if (total <= maximo) return;
+
+        arquivos.sort(Comparator.comparing(p -> {
+            try {return Files.getLastModifiedTime(p);}
+            catch (IOException e) {return FileTime.fromMillis(0);}
+        }));
+        for (Path p : arquivos) {
+            if (total <= maximo) break;
+            if (!tamanhos.containsKey(p)) continue;
+            total -= tamanhos.get(p);
+            Files.deleteIfExists(p);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/******************************************************************************
+ *  Compilação:  javac Checkpoint.java
+ *  Execução:    java Asimov s 5000 --checkpoint=estado.bin < input.txt
+ *               java Asimov resume estado.bin
+ *
+ *  Dependencies: Asimov.java
+ *
+ *  Grava de tempos em tempos o estado completo de uma simulação longa, de
+ *  modo que ela possa continuar de onde parou se a JVM morrer. O arquivo é
+ *  escrito ao lado do destino e só então renomeado, então um arquivo lido
+ *  está sempre inteiro.
+ ******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+public class Checkpoint {
+
+    private static final int EVENTOS_ENTRE_CONSULTAS = 4096;   // Evita ler o relógio a cada evento.
+
+    private final Path arquivo;
+    private final long intervalo;        // Nanossegundos entre duas gravações.
+    private long ultima;
+    private int eventos = 0;
+
+    public Checkpoint(Path arquivo, double segundos) {
+        this.arquivo = arquivo;
+        this.intervalo = (long) (segundos * 1e9);
+        this.ultima = System.nanoTime();
+    }
+
+    // Chamado a cada evento; grava o estado se já passou o intervalo desde a última vez.
+    public void talvezGrave(Asimov sistema, double limite, double tempo) {
+        if (++eventos < EVENTOS_ENTRE_CONSULTAS) return;
+        eventos = 0;
+        long agora = System.nanoTime();
+        if (agora - ultima < intervalo) return;
+        grava(sistema, limite, tempo);
+        ultima = System.nanoTime();
+    }
+
+    // Escreve num arquivo temporário, força a ida ao disco e troca pelo antigo de uma vez.
+    public void grava(Asimov sistema, double limite, double tempo) {
+        Path temporario = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+        try {
+            FileOutputStream arq = new FileOutputStream(temporario.toFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(arq, 1 << 16))) {
+                sistema.gravaEstado(out, limite, tempo);
+                out.flush();
+                arq.getFD().sync();
+            }
+            Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Não foi possível gravar " + arquivo, e);
+        }
+    }
+
+    public static DataInputStream abre(Path arquivo) throws IOException {
+        InputStream in = Files.newInputStream(arquivo);
+        return new DataInputStream(new BufferedInputStream(in, 1 << 16));
+    }
+}
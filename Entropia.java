@@ -0,0 +1,126 @@
+/******************************************************************************
+ *  Compilação:  javac Entropia.java
+ *  Execução:    java Asimov en 100 < input.txt
+ *                java Asimov en 100 --celulas=20 --setores=8 < input.txt
+ *
+ *  Dependencies: Particle.java
+ *
+ *  Entropia de granulação grossa S = ln N - (1/N) Σ n_c ln n_c, em que n_c
+ *  é o número de partículas na célula c de uma grade de 'celulas' x
+ *  'celulas' sobre a caixa, opcionalmente subdividida em 'setores' de
+ *  direção da velocidade. É o negativo da função H de Boltzmann, a menos de
+ *  constantes, e mede a desordem que 'posD' só vê como deslocamento médio.
+ *
+ *  A soma Σ n ln n é mantida a cada mudança de célula, então ler S custa
+ *  O(1). Em 'Asimov' cada partícula tem um evento marcado para quando ela
+ *  atravessar a próxima fronteira de célula, e o setor só muda nas colisões.
+ ******************************************************************************/
+
+import java.util.Arrays;
+
+public class Entropia {
+
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+
+    private final int m;                 // Células por lado.
+    private final int setores;           // Setores de direção da velocidade; 1 ignora a velocidade.
+    private final int[] ocupacao;        // Partículas em cada célula e setor.
+    private int[] celula, setor;         // Célula e setor atuais de cada partícula.
+    private int[] proxima;               // Célula para onde cada partícula vai na próxima travessia.
+    private int n;
+    private double soma;                 // Σ n_c ln n_c.
+
+    public Entropia(int m, int setores) {
+        if (m < 1 || setores < 1) throw new IllegalArgumentException("A grade precisa de ao menos uma célula e um setor");
+        this.m = m;
+        this.setores = setores;
+        ocupacao = new int[m * m * setores];
+    }
+
+    // Recomeça a contagem a partir das posições e velocidades atuais.
+    public void inicia(Particle[] particles) {
+        n = particles.length;
+        if (celula == null || celula.length != n) {
+            celula = new int[n];
+            setor = new int[n];
+            proxima = new int[n];
+        }
+        Arrays.fill(ocupacao, 0);
+        for (int i = 0; i < n; i++) {
+            Particle p = particles[i];
+            celula[i] = coordenada(p.ry()) * m + coordenada(p.rx());
+            setor[i] = setor(p);
+            ocupacao[celula[i] * setores + setor[i]]++;
+        }
+        soma = 0;
+        for (int c : ocupacao) soma += f(c);
+    }
+
+    private int coordenada(double x) {
+        return Math.max(0, Math.min(m - 1, (int) (x * m)));
+    }
+
+    private int setor(Particle p) {
+        if (setores == 1) return 0;
+        double angulo = Math.atan2(p.vy(), p.vx()) + Math.PI;
+        return Math.min(setores - 1, (int) (angulo / (2 * Math.PI) * setores));
+    }
+
+    private static double f(int x) {
+        return x > 1 ? x * Math.log(x) : 0.0;
+    }
+
+    // Tira 'i' de uma caixa e a põe em outra, corrigindo a soma só nas duas.
+    private void muda(int i, int novaCelula, int novoSetor) {
+        int de = celula[i] * setores + setor[i], para = novaCelula * setores + novoSetor;
+        if (de == para) return;
+        soma -= f(ocupacao[de]) + f(ocupacao[para]);
+        ocupacao[de]--;
+        ocupacao[para]++;
+        soma += f(ocupacao[de]) + f(ocupacao[para]);
+        celula[i] = novaCelula;
+        setor[i] = novoSetor;
+    }
+
+    // Tempo até 'p' atravessar a próxima fronteira de célula com a velocidade atual, infinito
+    // se ela só encontra paredes. Guarda a célula de destino para 'cruza'. Pode ser chamado em
+    // paralelo para partículas diferentes.
+    public double tempoAteCruzar(Particle p) {
+        int i = p.indice();
+        int cx = celula[i] % m, cy = celula[i] / m;
+        double dtX = INFINITY, dtY = INFINITY;
+        if      (p.vx() > 0 && cx < m - 1) dtX = ((cx + 1) / (double) m - p.rx()) / p.vx();
+        else if (p.vx() < 0 && cx > 0)     dtX = (cx / (double) m - p.rx()) / p.vx();
+        if      (p.vy() > 0 && cy < m - 1) dtY = ((cy + 1) / (double) m - p.ry()) / p.vy();
+        else if (p.vy() < 0 && cy > 0)     dtY = (cy / (double) m - p.ry()) / p.vy();
+
+        if (dtX == INFINITY && dtY == INFINITY) return INFINITY;
+        if (dtX <= dtY) proxima[i] = celula[i] + (p.vx() > 0 ? 1 : -1);
+        else            proxima[i] = celula[i] + (p.vy() > 0 ? m : -m);
+        // Arredondamentos perto da fronteira não podem dar um tempo negativo.
+        return Math.max(0.0, Math.min(dtX, dtY));
+    }
+
+    // 'p' chegou à fronteira prevista pelo último 'tempoAteCruzar'.
+    public void cruza(Particle p) {
+        int i = p.indice();
+        muda(i, proxima[i], setor[i]);
+    }
+
+    // Depois de uma colisão a direção da velocidade pode ter mudado de setor.
+    public void mudouVelocidade(Particle p) {
+        if (setores == 1) return;
+        int i = p.indice();
+        muda(i, celula[i], setor(p));
+    }
+
+    public double valor() {
+        return n == 0 ? 0.0 : Math.log(n) - soma / n;
+    }
+
+    // O maior valor possível, com as partículas espalhadas por igual entre as caixas (exato
+    // quando o número de caixas divide o de partículas).
+    public double maximo() {
+        return Math.log(Math.min(n, ocupacao.length));
+    }
+}
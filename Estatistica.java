@@ -0,0 +1,152 @@
+/******************************************************************************
+ *  Compilação:  javac Estatistica.java
+ *  Execução:    java Asimov bn 1000 20 0.1 0.001 1 --precisao=0.05
+ *
+ *  Dependencies: none
+ *
+ *  Estatísticas de uma sequência de ensaios calculadas à medida que eles
+ *  chegam, sem guardar os valores: média e variância pelo método de
+ *  Welford, mínimo e máximo, os quantis de 5%, 50% e 95% pelo algoritmo P²
+ *  de Jain e Chlamtac e um histograma de largura fixa de baldes que dobra
+ *  quando algum valor não cabe. Com elas os laços de ensaios podem parar
+ *  assim que o intervalo de confiança da média ficar estreito o bastante.
+ ******************************************************************************/
+
+import java.util.Arrays;
+
+public class Estatistica {
+
+    private static final double Z = 1.96;      // Intervalo de confiança de 95%.
+    private static final int MINIMO = 10;      // Ensaios antes de confiarmos no desvio padrão.
+    private static final int BALDES = 20;
+
+    private long n = 0;
+    private double media = 0, m2 = 0;
+    private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+    private final Quantil q05 = new Quantil(0.05), q50 = new Quantil(0.5), q95 = new Quantil(0.95);
+
+    // Histograma de [0, BALDES * largura); os valores negativos vão para o primeiro balde.
+    private final long[] histograma = new long[BALDES];
+    private double largura = 0;
+
+    public void adiciona(double x) {
+        n++;
+        double d = x - media;
+        media += d / n;
+        m2 += d * (x - media);
+        if (x < min) min = x;
+        if (x > max) max = x;
+
+        q05.adiciona(x);
+        q50.adiciona(x);
+        q95.adiciona(x);
+
+        if (largura == 0) largura = x > 0 ? x / (BALDES / 2) : 1.0;
+        while (x >= BALDES * largura) {
+            for (int i = 0; i < BALDES / 2; i++) histograma[i] = histograma[2 * i] + histograma[2 * i + 1];
+            for (int i = BALDES / 2; i < BALDES; i++) histograma[i] = 0;
+            largura *= 2;
+        }
+        histograma[Math.max(0, (int) (x / largura))]++;
+    }
+
+    public long n() {return n;}
+
+    public double media() {return media;}
+
+    public double variancia() {return n > 1 ? m2 / (n - 1) : 0.0;}
+
+    public double desvio() {return Math.sqrt(variancia());}
+
+    public double min() {return min;}
+
+    public double max() {return max;}
+
+    public double mediana() {return q50.valor();}
+
+    // Metade da largura do intervalo de confiança de 95% da média.
+    public double meiaLargura() {
+        return n > 1 ? Z * desvio() / Math.sqrt(n) : Double.POSITIVE_INFINITY;
+    }
+
+    // Verdadeiro quando a largura do intervalo de confiança, relativa à média, já é no máximo
+    // 'precisao'. Com 'precisao' zero nunca para.
+    public boolean bastante(double precisao) {
+        if (precisao <= 0 || n < MINIMO || media == 0) return false;
+        return 2 * meiaLargura() / Math.abs(media) <= precisao;
+    }
+
+    public String resumo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Ensaios: ").append(n).append('\n');
+        sb.append("Média: ").append(media).append(" ± ").append(meiaLargura()).append(" (95%)\n");
+        sb.append("Desvio padrão: ").append(desvio()).append('\n');
+        sb.append("Quantis 5%, 50% e 95%: ").append(q05.valor()).append(' ').append(q50.valor()).append(' ').append(q95.valor()).append('\n');
+        sb.append("Histograma (balde de largura ").append(largura).append("):");
+        for (long c : histograma) sb.append(' ').append(c);
+        return sb.append('\n').toString();
+    }
+
+    // Algoritmo P²: cinco marcadores cujas alturas acompanham o quantil 'p' sem guardar os
+    // valores. Até o quinto valor, o quantil é o exato dos valores vistos.
+    private static class Quantil {
+        private final double p;
+        private final double[] q = new double[5];      // Alturas dos marcadores.
+        private final double[] pos = new double[5];    // Posições atuais.
+        private final double[] desejada = new double[5];
+        private final double[] incremento;
+        private int vistos = 0;
+
+        Quantil(double p) {
+            this.p = p;
+            incremento = new double[] {0, p / 2, p, (1 + p) / 2, 1};
+        }
+
+        void adiciona(double x) {
+            if (vistos < 5) {
+                q[vistos++] = x;
+                Arrays.sort(q, 0, vistos);
+                if (vistos == 5) {
+                    for (int i = 0; i < 5; i++) pos[i] = i + 1;
+                    desejada[0] = 1; desejada[1] = 1 + 2 * p; desejada[2] = 1 + 4 * p;
+                    desejada[3] = 3 + 2 * p; desejada[4] = 5;
+                }
+                return;
+            }
+            vistos++;
+
+            int k;
+            if (x < q[0]) {q[0] = x; k = 0;}
+            else if (x >= q[4]) {q[4] = x; k = 3;}
+            else {
+                k = 0;
+                while (x >= q[k + 1]) k++;
+            }
+            for (int i = k + 1; i < 5; i++) pos[i]++;
+            for (int i = 0; i < 5; i++) desejada[i] += incremento[i];
+
+            for (int i = 1; i <= 3; i++) {
+                double d = desejada[i] - pos[i];
+                if ((d >= 1 && pos[i + 1] - pos[i] > 1) || (d <= -1 && pos[i - 1] - pos[i] < -1)) {
+                    int s = d >= 0 ? 1 : -1;
+                    double novo = parabolica(i, s);
+                    if (q[i - 1] < novo && novo < q[i + 1]) q[i] = novo;
+                    else q[i] = q[i] + s * (q[i + s] - q[i]) / (pos[i + s] - pos[i]);
+                    pos[i] += s;
+                }
+            }
+        }
+
+        private double parabolica(int i, int s) {
+            return q[i] + s / (pos[i + 1] - pos[i - 1]) * ((pos[i] - pos[i - 1] + s) * (q[i + 1] - q[i]) / (pos[i + 1] - pos[i])
+                                                        + (pos[i + 1] - pos[i] - s) * (q[i] - q[i - 1]) / (pos[i] - pos[i - 1]));
+        }
+
+        double valor() {
+            if (vistos == 0) return Double.NaN;
+            if (vistos < 5) return q[Math.min(vistos - 1, (int) Math.round(p * (vistos - 1)))];
+            return q[2];
+        }
+    }
+}
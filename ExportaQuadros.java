@@ -0,0 +1,127 @@
+/******************************************************************************
+ *  Compilação:  javac ExportaQuadros.java
+ *  Execução:    java Asimov q 600 --quadros=saida --resolucao=800 < input.txt
+ *
+ *  Dependencies: Particle.java
+ *
+ *  Desenha as partículas diretamente no buffer de inteiros de uma
+ *  'BufferedImage', sem 'StdDraw', e grava cada quadro como PNG numa
+ *  thread à parte. Serve para as máquinas sem monitor.
+ ******************************************************************************/
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.imageio.ImageIO;
+
+public class ExportaQuadros {
+
+    private static final int FUNDO = 0xFFFFFF;
+
+    private final File pasta;              // Onde os quadros são gravados.
+    private final int lado;                // Resolução do quadro, em pixels.
+    private final double intervalo;        // Tempo simulado entre dois quadros.
+    private final int limiarDensidade;     // A partir deste número de partículas desenhamos um mapa de densidade.
+    private final int bloco;               // Lado, em pixels, de cada célula do mapa de densidade.
+
+    private final ExecutorService codificadores;
+    private final Semaphore pendentes;     // Limita quantos quadros podem esperar para serem gravados.
+    private final AtomicReference<IOException> erro = new AtomicReference<IOException>();
+    private int quadros = 0;
+
+    public ExportaQuadros(File pasta, int lado, double intervalo, int limiarDensidade, int threads) {
+        if (!pasta.isDirectory() && !pasta.mkdirs()) throw new UncheckedIOException(new IOException("Não foi possível criar " + pasta));
+        this.pasta = pasta;
+        this.lado = lado;
+        this.intervalo = intervalo;
+        this.limiarDensidade = limiarDensidade;
+        this.bloco = Math.max(1, lado / 150);
+        codificadores = Executors.newFixedThreadPool(threads);
+        pendentes = new Semaphore(2 * threads);
+    }
+
+    public double intervalo() {return intervalo;}
+
+    public int quadros() {return quadros;}
+
+    // Rasteriza o estado atual e manda o quadro para ser gravado em segundo plano.
+    public void grava(Particle[] particles) {
+        BufferedImage imagem = new BufferedImage(lado, lado, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) imagem.getRaster().getDataBuffer()).getData();
+        Arrays.fill(pixels, FUNDO);
+
+        if (particles.length > limiarDensidade) densidade(pixels, particles);
+        else for (Particle p : particles) disco(pixels, p.rx(), p.ry(), p.radius(), p.color().getRGB() & 0xFFFFFF);
+
+        File arquivo = new File(pasta, String.format("quadro_%06d.png", quadros++));
+        pendentes.acquireUninterruptibly();
+        codificadores.execute(() -> {
+            try {ImageIO.write(imagem, "png", arquivo);}
+            catch (IOException e) {erro.compareAndSet(null, e);}
+            finally {pendentes.release();}
+        });
+    }
+
+    // Preenche um disco linha a linha, com a origem da caixa no canto inferior esquerdo.
+    private void disco(int[] pixels, double x, double y, double raio, int rgb) {
+        double cx = x * lado, cy = (1.0 - y) * lado;
+        double r = Math.max(0.5, raio * lado);
+        int y0 = Math.max(0, (int) Math.floor(cy - r));
+        int y1 = Math.min(lado - 1, (int) Math.ceil(cy + r));
+        for (int py = y0; py <= y1; py++) {
+            double dy = py + 0.5 - cy;
+            double meia = r * r - dy * dy;
+            if (meia < 0) continue;
+            meia = Math.sqrt(meia);
+            int x0 = Math.max(0, (int) Math.ceil(cx - meia - 0.5));
+            int x1 = Math.min(lado - 1, (int) Math.floor(cx + meia - 0.5));
+            if (x0 <= x1) Arrays.fill(pixels, py * lado + x0, py * lado + x1 + 1, rgb);
+        }
+    }
+
+    // Quando há partículas demais para discos individuais, conta quantas caem em cada
+    // célula e pinta a célula numa escala logarítmica de matiz, do azul-claro (poucas) ao
+    // vermelho (a mais cheia), passando pelo verde e pelo amarelo. Células vazias ficam no fundo.
+    private void densidade(int[] pixels, Particle[] particles) {
+        int celulas = (lado + bloco - 1) / bloco;
+        int[] contagem = new int[celulas * celulas];
+        int maximo = 0;
+        for (Particle p : particles) {
+            int cx = Math.min(celulas - 1, Math.max(0, (int) (p.rx() * lado) / bloco));
+            int cy = Math.min(celulas - 1, Math.max(0, (int) ((1.0 - p.ry()) * lado) / bloco));
+            int c = ++contagem[cy * celulas + cx];
+            if (c > maximo) maximo = c;
+        }
+        if (maximo == 0) return;
+
+        double escala = Math.log1p(maximo);
+        for (int cy = 0; cy < celulas; cy++) {
+            for (int cx = 0; cx < celulas; cx++) {
+                int c = contagem[cy * celulas + cx];
+                if (c == 0) continue;
+                float nivel = (float) (Math.log1p(c) / escala);
+                int rgb = Color.HSBtoRGB(0.66f * (1f - nivel), 0.3f + 0.7f * nivel, 1f) & 0xFFFFFF;
+                int x1 = Math.min(lado, (cx + 1) * bloco);
+                for (int py = cy * bloco; py < Math.min(lado, (cy + 1) * bloco); py++)
+                    Arrays.fill(pixels, py * lado + cx * bloco, py * lado + x1, rgb);
+            }
+        }
+    }
+
+    // Espera todos os quadros serem gravados.
+    public void encerra() {
+        codificadores.shutdown();
+        try {codificadores.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);}
+        catch (InterruptedException e) {Thread.currentThread().interrupt();}
+        if (erro.get() != null) throw new UncheckedIOException(erro.get());
+    }
+}
@@ -0,0 +1,160 @@
+/******************************************************************************
+ *  Compilação:  javac GradeHierarquica.java
+ *  Execução:    java Asimov pg 600 --indice=grade < input.txt
+ *
+ *  Dependencies: IndiceEspacial.java Particle.java
+ *
+ *  Grade de vários níveis para partículas de raios muito diferentes. O nível
+ *  0 tem as células menores e cada nível acima tem células com o dobro do
+ *  lado. Cada partícula fica no menor nível cujas células são maiores que o
+ *  seu diâmetro, de modo que uma colisão entre partículas dos níveis 'la' e
+ *  'lb' sempre acontece entre células vizinhas do nível max(la, lb).
+ ******************************************************************************/
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+public class GradeHierarquica implements IndiceEspacial {
+
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+    private static final int NIVEIS_MAX = 15;
+
+    private int topo;                // Nível mais alto, que tem uma única célula.
+    private int[][] cabeca;          // Primeira partícula de cada célula, por nível; -1 se vazia.
+    private int[] ocupacao;          // Número de partículas em cada nível.
+
+    // Dados de cada partícula.
+    private int[] nivel;
+    private int[] cx, cy;            // Célula atual, no nível da própria partícula.
+    private int[] prox, ant;         // Lista duplamente ligada de cada célula.
+    private int[] saida;             // Direção da próxima troca de célula: 0 esquerda, 1 direita, 2 baixo, 3 cima, -1 nenhuma.
+
+    public void constroi(Particle[] particles) {
+        int n = particles.length;
+
+        double rmin = INFINITY;
+        for (Particle p : particles) rmin = Math.min(rmin, p.radius());
+
+        // O nível 0 tem 2^topo células por lado. Paramos quando as células ficariam menores
+        // que o diâmetro da menor partícula ou quando houver muito mais células que partículas.
+        topo = 0;
+        while (topo < NIVEIS_MAX && lado(0, topo + 1) > 2 * rmin && (1L << (2 * (topo + 1))) <= 4L * n) topo++;
+
+        // Numa nova simulação com as mesmas partículas, os arrays já alocados são reaproveitados.
+        if (cabeca == null || cabeca.length != topo + 1) {
+            cabeca = new int[topo + 1][];
+            for (int l = 0; l <= topo; l++) {
+                int m = 1 << (topo - l);
+                cabeca[l] = new int[m * m];
+            }
+            ocupacao = new int[topo + 1];
+        }
+        for (int l = 0; l <= topo; l++) Arrays.fill(cabeca[l], -1);
+        Arrays.fill(ocupacao, 0);
+
+        if (nivel == null || nivel.length != n) {
+            nivel = new int[n]; cx = new int[n]; cy = new int[n];
+            prox = new int[n]; ant = new int[n]; saida = new int[n];
+        }
+        for (int i = 0; i < n; i++) {
+            Particle p = particles[i];
+            int l = 0;
+            while (l < topo && lado(l, topo) <= 2 * p.radius()) l++;
+            nivel[i] = l;
+            ocupacao[l]++;
+            int m = 1 << (topo - l);
+            cx[i] = celula(p.rx(), m);
+            cy[i] = celula(p.ry(), m);
+            saida[i] = -1;
+            insere(i);
+        }
+    }
+
+    // Lado das células do nível 'l' numa grade cujo nível mais alto é 'topo'.
+    private static double lado(int l, int topo) {
+        return 1.0 / (1 << (topo - l));
+    }
+
+    private static int celula(double x, int m) {
+        return Math.min(m - 1, Math.max(0, (int) Math.floor(x * m)));
+    }
+
+    private void insere(int i) {
+        int l = nivel[i];
+        int c = cy[i] * (1 << (topo - l)) + cx[i];
+        ant[i] = -1;
+        prox[i] = cabeca[l][c];
+        if (prox[i] >= 0) ant[prox[i]] = i;
+        cabeca[l][c] = i;
+    }
+
+    private void remove(int i) {
+        int l = nivel[i];
+        int c = cy[i] * (1 << (topo - l)) + cx[i];
+        if (ant[i] >= 0) prox[ant[i]] = prox[i];
+        else             cabeca[l][c] = prox[i];
+        if (prox[i] >= 0) ant[prox[i]] = ant[i];
+    }
+
+    public void candidatos(Particle p, IntConsumer visita) {
+        int a = p.indice();
+        int la = nivel[a];
+        for (int l = 0; l <= topo; l++) {
+            if (ocupacao[l] == 0) continue;
+            int m = 1 << (topo - l);
+            int x0, x1, y0, y1;
+            if (l >= la) {
+                // Células vizinhas, no nível 'l', da célula que contém 'a'.
+                int d = l - la;
+                x0 = (cx[a] >> d) - 1; x1 = (cx[a] >> d) + 1;
+                y0 = (cy[a] >> d) - 1; y1 = (cy[a] >> d) + 1;
+            }
+            else {
+                // Partículas menores: todas as células finas dentro da vizinhança de 'a' no nível dela.
+                int d = la - l;
+                x0 = (cx[a] - 1) << d; x1 = ((cx[a] + 2) << d) - 1;
+                y0 = (cy[a] - 1) << d; y1 = ((cy[a] + 2) << d) - 1;
+            }
+            x0 = Math.max(x0, 0); x1 = Math.min(x1, m - 1);
+            y0 = Math.max(y0, 0); y1 = Math.min(y1, m - 1);
+            int[] celulas = cabeca[l];
+            for (int y = y0; y <= y1; y++)
+                for (int x = x0; x <= x1; x++)
+                    for (int j = celulas[y * m + x]; j >= 0; j = prox[j])
+                        if (j != a) visita.accept(j);
+        }
+    }
+
+    // Tempo até a partícula sair da sua célula pelo lado para onde se move. Nas células da
+    // borda a parede chega antes, então não há troca para aquele lado.
+    public double tempoAteAtualizar(Particle p) {
+        int a = p.indice();
+        int m = 1 << (topo - nivel[a]);
+        double s = 1.0 / m;
+
+        double dtX = INFINITY, dtY = INFINITY;
+        int dirX = -1, dirY = -1;
+        if      (p.vx() > 0 && cx[a] < m - 1) {dtX = ((cx[a] + 1) * s - p.rx()) / p.vx(); dirX = 1;}
+        else if (p.vx() < 0 && cx[a] > 0)     {dtX = (cx[a] * s - p.rx()) / p.vx();       dirX = 0;}
+        if      (p.vy() > 0 && cy[a] < m - 1) {dtY = ((cy[a] + 1) * s - p.ry()) / p.vy(); dirY = 3;}
+        else if (p.vy() < 0 && cy[a] > 0)     {dtY = (cy[a] * s - p.ry()) / p.vy();       dirY = 2;}
+
+        if (dtX <= dtY) {saida[a] = dirX; return Math.max(0.0, dtX);}
+        else            {saida[a] = dirY; return Math.max(0.0, dtY);}
+    }
+
+    public void atualiza(Particle p) {
+        int a = p.indice();
+        if (saida[a] < 0) return;
+        remove(a);
+        if      (saida[a] == 0) cx[a]--;
+        else if (saida[a] == 1) cx[a]++;
+        else if (saida[a] == 2) cy[a]--;
+        else                    cy[a]++;
+        saida[a] = -1;
+        insere(a);
+    }
+
+    // A célula só depende da posição, então não há nada a refazer aqui.
+    public void mudouVelocidade(Particle a) {}
+}
@@ -0,0 +1,126 @@
+/******************************************************************************
+ *  Compilação:  javac Grafico.java
+ *  Execução:    none
+ *
+ *  Dependencies: StdDraw.java
+ *
+ *  Reduz uma série muito longa a um número fixo de baldes enquanto ela é
+ *  gerada, guardando o mínimo, o máximo, o primeiro e o último valor de cada
+ *  balde. Assim o desenho tem no máximo dois segmentos por balde, não
+ *  importa quantos pontos a simulação produza.
+ ******************************************************************************/
+
+public class Grafico {
+
+    private final int baldes;          // Número de baldes, em geral a largura do desenho em pixels.
+    private double largura;            // Intervalo de 'x' coberto por cada balde.
+    private double x0;                 // 'x' do primeiro ponto.
+    private int ocupados = 0;          // Índice do último balde usado, mais um.
+    private long pontos = 0;           // Número de pontos recebidos.
+
+    // Resumo de cada balde.
+    private final double[] minB, maxB;
+    private final double[] xPrimeiro, yPrimeiro, xUltimo, yUltimo;
+    private final boolean[] usado;
+
+    // Extremos da série toda, calculados junto com a redução.
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    // 'largura' é a largura inicial dos baldes; ela dobra cada vez que a série não cabe mais.
+    public Grafico(int baldes, double largura) {
+        if (baldes < 2 || baldes % 2 != 0) throw new IllegalArgumentException("O número de baldes deve ser par e maior que 1");
+        this.baldes = baldes;
+        this.largura = largura;
+        minB = new double[baldes]; maxB = new double[baldes];
+        xPrimeiro = new double[baldes]; yPrimeiro = new double[baldes];
+        xUltimo = new double[baldes]; yUltimo = new double[baldes];
+        usado = new boolean[baldes];
+    }
+
+    public Grafico(int baldes) {
+        this(baldes, 1.0);
+    }
+
+    // Acrescenta um ponto com 'x' igual ao número de pontos já recebidos.
+    public void adiciona(double y) {
+        adiciona(pontos, y);
+    }
+
+    // Acrescenta um ponto; os 'x' devem vir em ordem crescente.
+    public void adiciona(double x, double y) {
+        if (pontos == 0) x0 = x;
+        pontos++;
+        if (y < min) min = y;
+        if (y > max) max = y;
+
+        int i = (int) ((x - x0) / largura);
+        while (i >= baldes) {
+            comprime();
+            i = (int) ((x - x0) / largura);
+        }
+
+        if (!usado[i]) {
+            usado[i] = true;
+            minB[i] = maxB[i] = y;
+            xPrimeiro[i] = x; yPrimeiro[i] = y;
+        }
+        else {
+            if (y < minB[i]) minB[i] = y;
+            if (y > maxB[i]) maxB[i] = y;
+        }
+        xUltimo[i] = x; yUltimo[i] = y;
+        if (i + 1 > ocupados) ocupados = i + 1;
+    }
+
+    // Junta os baldes dois a dois e dobra a largura de cada um.
+    private void comprime() {
+        for (int i = 0; i < baldes / 2; i++) {
+            int a = 2 * i, b = 2 * i + 1;
+            boolean ua = usado[a], ub = usado[b];
+            if (ua && ub) {
+                minB[i] = Math.min(minB[a], minB[b]);
+                maxB[i] = Math.max(maxB[a], maxB[b]);
+                xPrimeiro[i] = xPrimeiro[a]; yPrimeiro[i] = yPrimeiro[a];
+                xUltimo[i] = xUltimo[b]; yUltimo[i] = yUltimo[b];
+            }
+            else if (ua || ub) {
+                int c = ua ? a : b;
+                minB[i] = minB[c]; maxB[i] = maxB[c];
+                xPrimeiro[i] = xPrimeiro[c]; yPrimeiro[i] = yPrimeiro[c];
+                xUltimo[i] = xUltimo[c]; yUltimo[i] = yUltimo[c];
+            }
+            usado[i] = ua || ub;
+        }
+        for (int i = baldes / 2; i < baldes; i++) usado[i] = false;
+        ocupados = (ocupados + 1) / 2;
+        largura *= 2;
+    }
+
+    public double min() {return min;}
+
+    public double max() {return max;}
+
+    public long pontos() {return pontos;}
+
+    // Desenha a série: uma linha vertical do mínimo ao máximo de cada balde e uma ligação
+    // do último ponto de um balde ao primeiro do seguinte.
+    public void desenha() {
+        double xMax = x0;
+        for (int i = 0; i < ocupados; i++) if (usado[i]) xMax = xUltimo[i];
+        StdDraw.setXscale(x0, Math.max(xMax, x0 + largura));
+        StdDraw.setYscale(min, max);
+        StdDraw.setPenRadius();
+
+        int anterior = -1;
+        for (int i = 0; i < ocupados; i++) {
+            if (!usado[i]) continue;
+            if (anterior >= 0) StdDraw.line(xUltimo[anterior], yUltimo[anterior], xPrimeiro[i], yPrimeiro[i]);
+            if (minB[i] < maxB[i]) {
+                double xc = (xPrimeiro[i] + xUltimo[i]) / 2;
+                StdDraw.line(xc, minB[i], xc, maxB[i]);
+            }
+            anterior = i;
+        }
+    }
+}
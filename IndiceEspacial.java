@@ -0,0 +1,34 @@
+/******************************************************************************
+ *  Compilação:  javac IndiceEspacial.java
+ *  Execução:    none
+ *
+ *  Dependencies: Particle.java
+ *
+ *  Fase larga do 'predict' de 'Asimov': em vez de testar a partícula contra
+ *  todas as outras, testamos só os candidatos devolvidos pelo índice. Como as
+ *  partículas se movem, o índice pode pedir eventos próprios (por exemplo, a
+ *  troca de célula de uma grade), que a simulação agenda na mesma fila.
+ ******************************************************************************/
+
+import java.util.function.IntConsumer;
+
+public interface IndiceEspacial {
+
+    // Monta o índice a partir das posições atuais. As partículas já têm 'indice()' definido.
+    // Depois dela, 'candidatos' e 'tempoAteAtualizar' já podem ser chamadas para qualquer
+    // partícula, inclusive de várias threads ao mesmo tempo, uma partícula por thread.
+    void constroi(Particle[] particles);
+
+    // Visita o índice de cada partícula que pode colidir com 'a' enquanto ela não passar
+    // por uma nova atualização. Só lê o índice, então pode ser chamada de várias threads.
+    void candidatos(Particle a, IntConsumer visita);
+
+    // Tempo até 'a' precisar ser atualizada no índice, ou infinito se nunca precisar.
+    double tempoAteAtualizar(Particle a);
+
+    // Chamado no instante agendado por 'tempoAteAtualizar', com 'a' já na posição daquele instante.
+    void atualiza(Particle a);
+
+    // Chamado quando a velocidade de 'a' muda, antes de procurarmos os candidatos dela.
+    void mudouVelocidade(Particle a);
+}
@@ -0,0 +1,150 @@
+/******************************************************************************
+ *  Compilação:  javac Lote.java
+ *  Execução:    java Asimov lote tarefas.txt --threads=4
+ *
+ *  Dependencies: Asimov.java Aleatorio.java Particle.java In.java
+ *
+ *  Roda muitas simulações numa única JVM, em vez de um processo por
+ *  experimento, para que a inicialização e o aquecimento do JIT sejam pagos
+ *  uma vez só. Cada linha do arquivo de tarefas tem a forma
+ *
+ *      modo cenário semente saída parâmetros...
+ *
+ *  com os modos
+ *
+ *      b limiar dif delta    (como 'java Asimov b')
+ *      d eps delta           (como 'java Asimov d')
+ *      s tempo               (como 'java Asimov s')
+ *
+ *  A semente '-' deixa o gerador sem semente e a saída '-' escreve na saída
+ *  padrão. Linhas vazias e as que começam com '#' são ignoradas. As tarefas
+ *  rodam em paralelo, cada cenário é lido uma única vez e cada thread
+ *  reaproveita o seu sistema entre uma tarefa e outra.
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Lote {
+
+    private static class Tarefa {
+        private final int linha;
+        private final String modo;
+        private final Path cenario;
+        private final String semente;    // '-' se não houver.
+        private final String saida;      // '-' para a saída padrão.
+        private final double[] parametros;
+
+        Tarefa(int linha, String modo, Path cenario, String semente, String saida, double[] parametros) {
+            this.linha = linha;
+            this.modo = modo;
+            this.cenario = cenario;
+            this.semente = semente;
+            this.saida = saida;
+            this.parametros = parametros;
+        }
+    }
+
+    private final ConcurrentHashMap<Path, Particle[]> cenarios = new ConcurrentHashMap<Path, Particle[]>();
+
+    public static void executa(Path arquivo, int threads) {
+        List<Tarefa> tarefas = le(arquivo);
+        new Lote().roda(tarefas, threads);
+    }
+
+    // Lê todas as tarefas antes de começar, para que um erro no arquivo apareça logo.
+    private static List<Tarefa> le(Path arquivo) {
+        List<String> linhas;
+        try {linhas = Files.readAllLines(arquivo, StandardCharsets.UTF_8);}
+        catch (IOException e) {throw new UncheckedIOException("Não foi possível ler " + arquivo, e);}
+
+        Path pasta = arquivo.toAbsolutePath().getParent();
+        List<Tarefa> tarefas = new ArrayList<Tarefa>();
+        for (int i = 0; i < linhas.size(); i++) {
+            String linha = linhas.get(i).trim();
+            if (linha.isEmpty() || linha.startsWith("#")) continue;
+            String[] campos = linha.split("\\s+");
+            if (campos.length < 4) throw new IllegalArgumentException("Linha " + (i + 1) + ": esperávamos 'modo cenário semente saída parâmetros...'");
+
+            String modo = campos[0];
+            int esperados;
+            if      (modo.equals("b")) esperados = 3;
+            else if (modo.equals("d")) esperados = 2;
+            else if (modo.equals("s")) esperados = 1;
+            else throw new IllegalArgumentException("Linha " + (i + 1) + ": modo desconhecido: " + modo);
+            if (campos.length - 4 != esperados) throw new IllegalArgumentException("Linha " + (i + 1) + ": o modo " + modo + " tem " + esperados + " parâmetros");
+
+            double[] parametros = new double[esperados];
+            for (int k = 0; k < esperados; k++) parametros[k] = Double.parseDouble(campos[4 + k]);
+            // Caminhos relativos são relativos ao arquivo de tarefas.
+            Path cenario = pasta.resolve(campos[1]).normalize();
+            String saida = campos[3].equals("-") ? "-" : pasta.resolve(campos[3]).normalize().toString();
+            tarefas.add(new Tarefa(i + 1, modo, cenario, campos[2], saida, parametros));
+        }
+        return tarefas;
+    }
+
+    private void roda(List<Tarefa> tarefas, int threads) {
+        long inicio = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<?>> resultados = new ArrayList<Future<?>>();
+        for (Tarefa tarefa : tarefas) resultados.add(executor.submit(() -> executa(tarefa)));
+        executor.shutdown();
+
+        int falhas = 0;
+        for (int i = 0; i < tarefas.size(); i++) {
+            try {resultados.get(i).get();}
+            catch (ExecutionException e) {
+                falhas++;
+                System.err.println("Tarefa da linha " + tarefas.get(i).linha + " falhou: " + e.getCause());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        System.err.printf("%d tarefas, %d falhas, em %.1f s%n", tarefas.size(), falhas, (System.nanoTime() - inicio) / 1e9);
+    }
+
+    private void executa(Tarefa tarefa) {
+        if (tarefa.semente.equals("-")) Aleatorio.esquece();
+        else                            Aleatorio.semeia(Long.parseLong(tarefa.semente));
+
+        // As partículas do cenário são compartilhadas entre as tarefas, mas só são lidas:
+        // cada sistema trabalha sobre a sua própria cópia.
+        Particle[] particles = cenarios.computeIfAbsent(tarefa.cenario, c -> Asimov.leCenario(new In(c.toFile())));
+        double[] p = tarefa.parametros;
+
+        String texto;
+        if (tarefa.modo.equals("b"))
+            texto = "O tempo até os dois estados divergirem é: " + Asimov.borboleta(particles, p[0], p[1], p[2]) + "\n";
+        else if (tarefa.modo.equals("d"))
+            texto = "O tempo até o sistema divergir vale: " + Asimov.diverge(particles, p[0], p[1]) + "\n";
+        else {
+            Asimov system = Asimov.motor(particles);
+            system.simulaSemPrint(10000, p[0]);
+            texto = system.textoPosicoes();
+        }
+        escreve(tarefa.saida, texto);
+    }
+
+    private static void escreve(String saida, String texto) {
+        if (saida.equals("-")) {
+            synchronized (System.out) {System.out.print(texto);}
+            return;
+        }
+        try {Files.write(Paths.get(saida), texto.getBytes(StandardCharsets.UTF_8));}
+        catch (IOException e) {throw new UncheckedIOException("Não foi possível escrever " + saida, e);}
+    }
+}
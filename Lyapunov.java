@@ -0,0 +1,129 @@
+/******************************************************************************
+ *  Compilação:  javac Lyapunov.java
+ *  Execução:    java Asimov ly d0 passo renormalizacoes < input.txt
+ *
+ *  Dependencies: Asimov.java Aleatorio.java Particle.java
+ *
+ *  Estima o maior expoente de Lyapunov numa única simulação, pelo método de
+ *  Benettin: o sistema de referência e uma sombra a uma distância 'd0'
+ *  (medida com 'Asimov.dif') avançam juntos por 'passo'; a distância d
+ *  alcançada dá a taxa ln(d/d0)/passo, e a sombra é trazida de volta para
+ *  a distância 'd0' na mesma direção, em posições e velocidades. O expoente
+ *  é a média das taxas, e o erro padrão das taxas indica a convergência.
+ *  Substitui as muitas buscas binárias de 'borboletaN' por uma única
+ *  simulação.
+ ******************************************************************************/
+
+public class Lyapunov {
+
+    // Horizonte das previsões, contado a partir do relógio de cada sistema. O da referência
+    // anda junto com ela, já que ela pode passar muito do 'LIMITE' de uma simulação comum.
+    private static final double LIMITE = 10000;
+
+    private final Asimov referencia, sombra;
+    private final double d0, passo;
+    private final double[][] estado, estadoSombra;
+    private final Particle[] novaSombra;     // Reaproveitado a cada renormalização.
+
+    private int renormalizacoes = 0;
+    private double soma = 0, somaQuadrados = 0;
+
+    public Lyapunov(Particle[] particles, double d0, double passo) {
+        if (d0 <= 0 || passo <= 0) throw new IllegalArgumentException("'d0' e 'passo' devem ser positivos");
+        int n = particles.length;
+        this.d0 = d0;
+        this.passo = passo;
+        estado = new double[n][4];
+        estadoSombra = new double[n][4];
+        novaSombra = new Particle[n];
+        for (int i = 0; i < n; i++) {
+            Particle p = particles[i];
+            novaSombra[i] = new Particle(p.rx(), p.ry(), p.vx(), p.vy(), p.radius(), p.mass(), p.color());
+        }
+
+        referencia = new Asimov(particles);
+        referencia.comeca(LIMITE);
+        referencia.estado(estado);
+
+        // Perturbação inicial numa direção aleatória das posições.
+        for (int i = 0; i < n; i++) {
+            estadoSombra[i][0] = estado[i][0] + Aleatorio.uniforme() - 0.5;
+            estadoSombra[i][1] = estado[i][1] + Aleatorio.uniforme() - 0.5;
+            estadoSombra[i][2] = estado[i][2];
+            estadoSombra[i][3] = estado[i][3];
+        }
+        sombra = new Asimov(particles);
+        renormaliza(Asimov.dif(estado, estadoSombra));
+    }
+
+    // Leva a sombra para a distância 'd0' da referência, na direção em que ela está agora.
+    private void renormaliza(double d) {
+        double escala = d0 / d;
+        for (int i = 0; i < novaSombra.length; i++) {
+            double[] r = estado[i], s = estadoSombra[i];
+            novaSombra[i].defineEstado(r[0] + (s[0] - r[0]) * escala, r[1] + (s[1] - r[1]) * escala,
+                                       r[2] + (s[2] - r[2]) * escala, r[3] + (s[3] - r[3]) * escala, 0);
+        }
+        // A sombra recomeça do zero a cada passo; só o relógio da referência é contínuo.
+        sombra.reinicia(novaSombra);
+        sombra.comeca(LIMITE);
+    }
+
+    // Faz 'passos' renormalizações.
+    public void avanca(int passos) {
+        for (int k = 0; k < passos; k++) {
+            referencia.avancaAte(referencia.tempo() + passo, referencia.tempo() + passo + LIMITE);
+            sombra.avancaAte(passo, LIMITE);
+            referencia.estado(estado);
+            sombra.estado(estadoSombra);
+
+            double d = Asimov.dif(estado, estadoSombra);
+            // Se a sombra coincidir com a referência não há direção para seguir; mantemos a
+            // anterior, que é a que está em 'novaSombra', sem contar o passo.
+            if (d == 0) {
+                for (int i = 0; i < estadoSombra.length; i++) {
+                    Particle p = novaSombra[i];
+                    estadoSombra[i][0] = p.rx(); estadoSombra[i][1] = p.ry();
+                    estadoSombra[i][2] = p.vx(); estadoSombra[i][3] = p.vy();
+                }
+                renormaliza(d0);
+                continue;
+            }
+
+            double taxa = Math.log(d / d0) / passo;
+            soma += taxa;
+            somaQuadrados += taxa * taxa;
+            renormalizacoes++;
+            renormaliza(d);
+        }
+    }
+
+    public int renormalizacoes() {return renormalizacoes;}
+
+    public double tempo() {return referencia.tempo();}
+
+    public double expoente() {
+        return renormalizacoes == 0 ? Double.NaN : soma / renormalizacoes;
+    }
+
+    // Erro padrão da média das taxas. As taxas de passos seguidos são correlacionadas, então
+    // é uma estimativa otimista; ela serve para ver se o valor parou de mudar.
+    public double erro() {
+        if (renormalizacoes < 2) return Double.NaN;
+        double media = expoente();
+        double variancia = (somaQuadrados - renormalizacoes * media * media) / (renormalizacoes - 1);
+        return Math.sqrt(Math.max(0.0, variancia) / renormalizacoes);
+    }
+
+    // Lê o sistema da entrada e imprime a estimativa a cada décimo das renormalizações.
+    public static void estima(double d0, double passo, int renormalizacoes) {
+        Particle[] particles = Asimov.leCenario(StdIn.readInt(), StdIn::readDouble, StdIn::readInt);
+        Lyapunov lyapunov = new Lyapunov(particles, d0, passo);
+        int bloco = Math.max(1, renormalizacoes / 10);
+        for (int feitas = 0; feitas < renormalizacoes; feitas += bloco) {
+            lyapunov.avanca(Math.min(bloco, renormalizacoes - feitas));
+            System.out.println("t = " + lyapunov.tempo() + ": expoente " + lyapunov.expoente() + " ± " + lyapunov.erro());
+        }
+        System.out.println("O maior expoente de Lyapunov vale: " + lyapunov.expoente() + " ± " + lyapunov.erro());
+    }
+}
@@ -134,6 +134,48 @@ public class MinPQ<Key> implements Iterable<Key> {
         return pq[1];
     }
 
+    /**
+     * Removes all keys from this priority queue, keeping the backing array
+     * so that it can be refilled without growing again.
+     */
+    public void clear() {
+        for (int i = 1; i <= n; i++) pq[i] = null;
+        n = 0;
+    }
+
+    /**
+     * Replaces the keys on this priority queue by the given keys.
+     * <p>
+     * Takes time proportional to the number of keys, using sink-based heap construction,
+     * and reuses the backing array when it is large enough.
+     *
+     * @param  keys the array of keys
+     */
+    @SuppressWarnings("unchecked")
+    public void replaceAll(Key[] keys) {
+        if (pq.length < keys.length + 1) pq = (Key[]) new Object[keys.length + 1];
+        else for (int i = keys.length + 1; i <= n; i++) pq[i] = null;
+        n = keys.length;
+        for (int i = 0; i < n; i++)
+            pq[i+1] = keys[i];
+        for (int k = n/2; k >= 1; k--)
+            sink(k);
+        assert isMinHeap();
+    }
+
+    /**
+     * Returns the keys on this priority queue in heap order (not sorted).
+     * Passing the result to {@link #MinPQ(Object[])} rebuilds a queue with
+     * exactly the same internal layout, since no key needs to move.
+     *
+     * @return a new array with the keys in heap order
+     */
+    public Object[] toArray() {
+        Object[] keys = new Object[n];
+        for (int i = 1; i <= n; i++) keys[i-1] = pq[i];
+        return keys;
+    }
+
     // helper function to double the size of the heap array
     private void resize(int capacity) {
         assert capacity > n;
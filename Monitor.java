@@ -0,0 +1,141 @@
+/******************************************************************************
+ *  Compilação:  javac Monitor.java
+ *  Execução:    java Asimov s 600 --monitor=1000 < input.txt
+ *
+ *  Dependencies: Particle.java
+ *
+ *  Acompanha a energia cinética e o momento totais sem percorrer todas as
+ *  partículas a cada evento: cada evento soma só a variação das partículas
+ *  envolvidas. Num choque entre partículas as duas variações deveriam ser
+ *  nulas, então o que sobra é erro de arredondamento; nas paredes o momento
+ *  muda de verdade e é acompanhado até a próxima conferência. A cada 'K'
+ *  eventos os totais são recalculados do zero, o que também elimina o erro
+ *  da própria soma incremental.
+ ******************************************************************************/
+
+public class Monitor {
+
+    private final int periodo;           // Eventos entre duas conferências completas.
+    private double limiar;               // Deriva relativa de energia que dispara o próximo alerta.
+
+    private double energia0;             // Energia no início da simulação.
+    private double energia;              // Energia atual, atualizada evento a evento.
+    private double momentoX, momentoY;   // Momento esperado: o da última conferência mais os impulsos das paredes.
+
+    // Estado das partículas do evento atual antes do choque.
+    private double energiaAntes, pxAntes, pyAntes;
+
+    // Estatísticas.
+    private long eventos, choques, conferencias, alertas;
+    private double maiorDerivaEnergia;   // Maior |energia - energia0| / energia0 observada.
+    private double maiorErroChoque;      // Maior variação relativa de energia num único choque.
+    private double erroMomentoChoques;   // Soma de |variação do momento| nos choques entre partículas.
+    private double derivaMomento;        // Soma das diferenças de momento encontradas nas conferências.
+    private double erroSoma;             // Maior diferença entre a energia incremental e a recalculada.
+
+    public Monitor(int periodo, double limiar) {
+        if (periodo < 1) throw new IllegalArgumentException("O período do monitor deve ser positivo");
+        if (limiar <= 0) throw new IllegalArgumentException("O limiar do monitor deve ser positivo");
+        this.periodo = periodo;
+        this.limiar = limiar;
+    }
+
+    // Toma o estado atual como referência e zera as estatísticas.
+    public void inicia(Particle[] particles) {
+        eventos = choques = conferencias = alertas = 0;
+        maiorDerivaEnergia = maiorErroChoque = erroMomentoChoques = derivaMomento = erroSoma = 0;
+        energia = energia0 = energiaTotal(particles);
+        momentoX = momentoX(particles);
+        momentoY = momentoY(particles);
+    }
+
+    // Chamado antes de aplicar um evento com as partículas 'a' e 'b', que podem ser null.
+    public void antes(Particle a, Particle b) {
+        energiaAntes = energia(a) + energia(b);
+        pxAntes = px(a) + px(b);
+        pyAntes = py(a) + py(b);
+    }
+
+    // Chamado logo depois do mesmo evento.
+    public void depois(Particle a, Particle b, Particle[] particles) {
+        double de = energia(a) + energia(b) - energiaAntes;
+        double dpx = px(a) + px(b) - pxAntes;
+        double dpy = py(a) + py(b) - pyAntes;
+        energia += de;
+        eventos++;
+
+        if (a != null && b != null) {
+            // Choque entre partículas: tudo o que mudou é erro.
+            choques++;
+            if (energiaAntes > 0) maiorErroChoque = Math.max(maiorErroChoque, Math.abs(de) / energiaAntes);
+            erroMomentoChoques += Math.hypot(dpx, dpy);
+        }
+        else {
+            // Parede: o impulso é real e entra no momento esperado.
+            momentoX += dpx;
+            momentoY += dpy;
+        }
+
+        double deriva = deriva();
+        if (deriva > maiorDerivaEnergia) maiorDerivaEnergia = deriva;
+        if (deriva > limiar) {
+            alertas++;
+            System.err.printf("Alerta: deriva relativa de energia %.3e depois de %d eventos%n", deriva, eventos);
+            while (limiar < deriva) limiar *= 10;
+        }
+
+        if (eventos % periodo == 0) confere(particles);
+    }
+
+    // Recalcula os totais percorrendo todas as partículas.
+    private void confere(Particle[] particles) {
+        conferencias++;
+        double exata = energiaTotal(particles);
+        erroSoma = Math.max(erroSoma, Math.abs(exata - energia));
+        energia = exata;
+
+        double px = momentoX(particles), py = momentoY(particles);
+        derivaMomento += Math.hypot(px - momentoX, py - momentoY);
+        momentoX = px;
+        momentoY = py;
+    }
+
+    public double deriva() {
+        return energia0 > 0 ? Math.abs(energia - energia0) / energia0 : Math.abs(energia);
+    }
+
+    public long alertas() {return alertas;}
+
+    public void relatorio() {
+        System.err.printf("Monitor: %d eventos, %d choques entre partículas, %d conferências, %d alertas%n", eventos, choques, conferencias, alertas);
+        System.err.printf("  energia inicial %.17g, atual %.17g%n", energia0, energia);
+        System.err.printf("  deriva relativa de energia: atual %.3e, máxima %.3e%n", deriva(), maiorDerivaEnergia);
+        System.err.printf("  maior erro relativo de energia num choque: %.3e%n", maiorErroChoque);
+        System.err.printf("  erro de momento nos choques: %.3e; deriva encontrada nas conferências: %.3e%n", erroMomentoChoques, derivaMomento);
+        System.err.printf("  maior erro da soma incremental de energia: %.3e%n", erroSoma);
+    }
+
+    private static double energia(Particle p) {return p == null ? 0 : p.kineticEnergy();}
+
+    private static double px(Particle p) {return p == null ? 0 : p.mass() * p.vx();}
+
+    private static double py(Particle p) {return p == null ? 0 : p.mass() * p.vy();}
+
+    private static double energiaTotal(Particle[] particles) {
+        double e = 0;
+        for (Particle p : particles) e += p.kineticEnergy();
+        return e;
+    }
+
+    private static double momentoX(Particle[] particles) {
+        double s = 0;
+        for (Particle p : particles) s += p.mass() * p.vx();
+        return s;
+    }
+
+    private static double momentoY(Particle[] particles) {
+        double s = 0;
+        for (Particle p : particles) s += p.mass() * p.vy();
+        return s;
+    }
+}
@@ -0,0 +1,444 @@
+/******************************************************************************
+ *  Compilação:  javac MotorForaDoHeap.java
+ *  Execução:    java Asimov oh 600 < input.txt
+ *                java Asimov oh 600 --mapeado=estado.bin < input.txt
+ *
+ *  Dependencies: Particle.java Observador.java
+ *
+ *  Variante de 'Asimov' para sistemas enormes (milhões de partículas), em
+ *  que as partículas, os eventos e a fila ficam fora do heap de Java, em
+ *  'ByteBuffer's diretos. Assim o heap e o custo do coletor de lixo não
+ *  crescem com o sistema. O estado das partículas pode ainda ficar num
+ *  arquivo mapeado em memória, que guarda o estado final ao fim da
+ *  simulação.
+ *
+ *  Para que um evento não custe O(n), cada partícula guarda o instante em
+ *  que a sua posição vale e só é movida quando participa de algo, e os
+ *  candidatos a colisão vêm de uma grade uniforme, cujas células têm lado
+ *  maior que o maior diâmetro. A física é a mesma de 'Particle'.
+ *
+ *  Registro de cada partícula no estado (ordem nativa dos bytes):
+ *      rx ry vx vy raio massa tempo (double), colisões célula próxima
+ *      anterior saída (int)
+ *
+ *  O estado e a fila de eventos são, cada um, um único 'ByteBuffer', e
+ *  portanto limitados a 2 GB. Como a fila começa com quatro eventos de 24
+ *  bytes por partícula, é ela que limita o sistema a cerca de 22 milhões
+ *  de partículas; acima disso o construtor falha logo de início.
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class MotorForaDoHeap implements AutoCloseable {
+
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+
+    // Campos do registro de uma partícula.
+    private static final int RX = 0, RY = 8, VX = 16, VY = 24, RAIO = 32, MASSA = 40, TEMPO = 48;
+    private static final int COUNT = 56, CELULA = 60, PROX = 64, ANT = 68, SAIDA = 72;
+    private static final int REGISTRO = 80;
+
+    // Campos de um evento na fila. 'b' vale PAREDE para a parede vertical e 'a' vale PAREDE
+    // para a horizontal, como em 'Asimov'; 'b' vale TROCA quando 'a' muda de célula.
+    private static final int TEMPO_EVENTO = 0, A = 8, B = 12, COUNT_A = 16, COUNT_B = 20;
+    private static final int EVENTO = 24;
+    private static final int PAREDE = -1, TROCA = -2;
+
+    private final int n;
+    private final double limite;
+    private ByteBuffer estado;
+    private ByteBuffer cabeca;           // Primeira partícula de cada célula, -1 se vazia.
+    private ByteBuffer fila;             // Heap binário de eventos, a partir da posição 1.
+    private int eventosNaFila = 0;
+    private int capacidade;
+    private final int m;                 // Células por lado.
+    private final FileChannel canal;     // Só quando o estado é mapeado num arquivo.
+
+    private double t = 0.0;
+    private Observador observador;       // Recebe cada colisão, usado por 'Verificacao'.
+    private long eventos = 0;
+
+    public MotorForaDoHeap(Particle[] particles, double limite) {
+        this(particles, limite, null);
+    }
+
+    // Com 'arquivo', o estado das partículas é mapeado nele em vez de ficar na memória.
+    public MotorForaDoHeap(Particle[] particles, double limite, Path arquivo) {
+        this.n = particles.length;
+        this.limite = limite;
+        long bytes = (long) n * REGISTRO;
+        if (bytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Partículas demais para um único buffer: " + n);
+        // A fila começa com 4 eventos por partícula; o tamanho é conferido antes de alocar qualquer coisa.
+        long eventos = Math.max(16L, 4L * n);
+        if ((eventos + 1) * EVENTO > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Partículas demais para a fila de eventos, limitada a 2 GB: " + n);
+
+        if (arquivo == null) {
+            canal = null;
+            estado = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+        }
+        else {
+            try {
+                canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                estado = canal.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder());
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Não foi possível mapear " + arquivo, e);
+            }
+        }
+
+        double rmax = 0;
+        for (Particle p : particles) rmax = Math.max(rmax, p.radius());
+        int lado = rmax > 0 ? (int) Math.floor(1.0 / (2 * rmax)) : Integer.MAX_VALUE;
+        m = Math.max(1, Math.min(lado, (int) Math.ceil(Math.sqrt(n))));
+        cabeca = ByteBuffer.allocateDirect(4 * m * m).order(ByteOrder.nativeOrder());
+        for (int c = 0; c < m * m; c++) cabeca.putInt(4 * c, -1);
+
+        for (int i = 0; i < n; i++) {
+            Particle p = particles[i];
+            int o = i * REGISTRO;
+            estado.putDouble(o + RX, p.rx()).putDouble(o + RY, p.ry());
+            estado.putDouble(o + VX, p.vx()).putDouble(o + VY, p.vy());
+            estado.putDouble(o + RAIO, p.radius()).putDouble(o + MASSA, p.mass());
+            estado.putDouble(o + TEMPO, 0.0);
+            estado.putInt(o + COUNT, 0);
+            estado.putInt(o + CELULA, celula(p.rx()) + m * celula(p.ry()));
+            estado.putInt(o + SAIDA, -1);
+            insere(i);
+        }
+
+        capacidade = (int) eventos;
+        fila = ByteBuffer.allocateDirect((int) ((eventos + 1) * EVENTO)).order(ByteOrder.nativeOrder());
+
+        // Cada partícula só prevê os pares com as de índice maior, para não repetir nenhum.
+        for (int i = 0; i < n; i++) predict(i, -1, i + 1);
+    }
+
+    // Acesso ao estado --------------------------------------------------------------------*/
+
+    private double d(int i, int campo) {return estado.getDouble(i * REGISTRO + campo);}
+
+    private void d(int i, int campo, double v) {estado.putDouble(i * REGISTRO + campo, v);}
+
+    private int inteiro(int i, int campo) {return estado.getInt(i * REGISTRO + campo);}
+
+    private void inteiro(int i, int campo, int v) {estado.putInt(i * REGISTRO + campo, v);}
+
+    // Leva a partícula até o relógio atual.
+    private void sincroniza(int i) {
+        double dt = t - d(i, TEMPO);
+        if (dt == 0) return;
+        d(i, RX, d(i, RX) + d(i, VX) * dt);
+        d(i, RY, d(i, RY) + d(i, VY) * dt);
+        d(i, TEMPO, t);
+    }
+
+    public int tamanho() {return n;}
+
+    public double tempo() {return t;}
+
+    public long eventos() {return eventos;}
+
+    public void observa(Observador observador) {
+        this.observador = observador;
+    }
+
+    // Posição de 'i' no instante atual.
+    public double rx(int i) {return d(i, RX) + d(i, VX) * (t - d(i, TEMPO));}
+
+    public double ry(int i) {return d(i, RY) + d(i, VY) * (t - d(i, TEMPO));}
+
+    public double vx(int i) {return d(i, VX);}
+
+    public double vy(int i) {return d(i, VY);}
+
+    public int count(int i) {return inteiro(i, COUNT);}
+
+    // Grade ---------------------------------------------------------------------------------*/
+
+    private int celula(double x) {
+        return Math.min(m - 1, Math.max(0, (int) Math.floor(x * m)));
+    }
+
+    private void insere(int i) {
+        int c = inteiro(i, CELULA);
+        int primeira = cabeca.getInt(4 * c);
+        inteiro(i, ANT, -1);
+        inteiro(i, PROX, primeira);
+        if (primeira >= 0) inteiro(primeira, ANT, i);
+        cabeca.putInt(4 * c, i);
+    }
+
+    private void remove(int i) {
+        int ant = inteiro(i, ANT), prox = inteiro(i, PROX);
+        if (ant >= 0) inteiro(ant, PROX, prox);
+        else          cabeca.putInt(4 * inteiro(i, CELULA), prox);
+        if (prox >= 0) inteiro(prox, ANT, ant);
+    }
+
+    // Tempo até 'i' sair da sua célula, como em 'GradeHierarquica'.
+    private double tempoAteTrocar(int i) {
+        int c = inteiro(i, CELULA);
+        int cx = c % m, cy = c / m;
+        double s = 1.0 / m;
+        double rx = d(i, RX), ry = d(i, RY), vx = d(i, VX), vy = d(i, VY);
+
+        double dtX = INFINITY, dtY = INFINITY;
+        int dirX = -1, dirY = -1;
+        if      (vx > 0 && cx < m - 1) {dtX = ((cx + 1) * s - rx) / vx; dirX = 1;}
+        else if (vx < 0 && cx > 0)     {dtX = (cx * s - rx) / vx;       dirX = 0;}
+        if      (vy > 0 && cy < m - 1) {dtY = ((cy + 1) * s - ry) / vy; dirY = 3;}
+        else if (vy < 0 && cy > 0)     {dtY = (cy * s - ry) / vy;       dirY = 2;}
+
+        if (dtX <= dtY) {inteiro(i, SAIDA, dirX); return Math.max(0.0, dtX);}
+        else            {inteiro(i, SAIDA, dirY); return Math.max(0.0, dtY);}
+    }
+
+    private void troca(int i) {
+        int saida = inteiro(i, SAIDA);
+        if (saida < 0) return;
+        remove(i);
+        int c = inteiro(i, CELULA);
+        if      (saida == 0) c -= 1;
+        else if (saida == 1) c += 1;
+        else if (saida == 2) c -= m;
+        else                 c += m;
+        inteiro(i, CELULA, c);
+        inteiro(i, SAIDA, -1);
+        insere(i);
+    }
+
+    // Física, com as mesmas fórmulas de 'Particle' -----------------------------------------*/
+
+    private double timeToHit(int a, int b) {
+        sincroniza(a);
+        sincroniza(b);
+        double dx  = d(b, RX) - d(a, RX);
+        double dy  = d(b, RY) - d(a, RY);
+        double dvx = d(b, VX) - d(a, VX);
+        double dvy = d(b, VY) - d(a, VY);
+        double dvdr = dx*dvx + dy*dvy;
+        if (dvdr > 0) return INFINITY;
+        double dvdv = dvx*dvx + dvy*dvy;
+        if (dvdv == 0) return INFINITY;
+        double drdr = dx*dx + dy*dy;
+        double sigma = d(a, RAIO) + d(b, RAIO);
+        double dd = (dvdr*dvdr) - dvdv * (drdr - sigma*sigma);
+        if (dd < 0) return INFINITY;
+        return -(dvdr + Math.sqrt(dd)) / dvdv;
+    }
+
+    private void bounceOff(int a, int b) {
+        double dx  = d(b, RX) - d(a, RX);
+        double dy  = d(b, RY) - d(a, RY);
+        double dvx = d(b, VX) - d(a, VX);
+        double dvy = d(b, VY) - d(a, VY);
+        double dvdr = dx*dvx + dy*dvy;
+        double dist = d(a, RAIO) + d(b, RAIO);
+        double ma = d(a, MASSA), mb = d(b, MASSA);
+        double magnitude = 2 * ma * mb * dvdr / ((ma + mb) * dist);
+        double fx = magnitude * dx / dist;
+        double fy = magnitude * dy / dist;
+        d(a, VX, d(a, VX) + fx / ma);
+        d(a, VY, d(a, VY) + fy / ma);
+        d(b, VX, d(b, VX) - fx / mb);
+        d(b, VY, d(b, VY) - fy / mb);
+        inteiro(a, COUNT, inteiro(a, COUNT) + 1);
+        inteiro(b, COUNT, inteiro(b, COUNT) + 1);
+    }
+
+    private double timeToHitVerticalWall(int i) {
+        double vx = d(i, VX);
+        if      (vx > 0) return (1.0 - d(i, RX) - d(i, RAIO)) / vx;
+        else if (vx < 0) return (d(i, RAIO) - d(i, RX)) / vx;
+        else             return INFINITY;
+    }
+
+    private double timeToHitHorizontalWall(int i) {
+        double vy = d(i, VY);
+        if      (vy > 0) return (1.0 - d(i, RY) - d(i, RAIO)) / vy;
+        else if (vy < 0) return (d(i, RAIO) - d(i, RY)) / vy;
+        else             return INFINITY;
+    }
+
+    // Previsões ---------------------------------------------------------------------------*/
+
+    // Agenda os eventos de 'i' com as partículas das células vizinhas de índice pelo menos
+    // 'minimo', exceto 'feito', com as paredes e a próxima troca de célula.
+    private void predict(int i, int feito, int minimo) {
+        sincroniza(i);
+        predictPares(i, feito, minimo);
+
+        double dtX = timeToHitVerticalWall(i);
+        double dtY = timeToHitHorizontalWall(i);
+        if (t + dtX <= limite) insere(t + dtX, i, PAREDE);
+        if (t + dtY <= limite) insere(t + dtY, PAREDE, i);
+        agendaTroca(i);
+    }
+
+    private void predictPares(int i, int feito, int minimo) {
+        int c = inteiro(i, CELULA);
+        int cx = c % m, cy = c / m;
+        for (int y = Math.max(0, cy - 1); y <= Math.min(m - 1, cy + 1); y++) {
+            for (int x = Math.max(0, cx - 1); x <= Math.min(m - 1, cx + 1); x++) {
+                for (int j = cabeca.getInt(4 * (y * m + x)); j >= 0; j = inteiro(j, PROX)) {
+                    if (j == i || j == feito || j < minimo) continue;
+                    // O par entra sempre com o menor índice primeiro, como em 'Asimov'.
+                    int a = Math.min(i, j), b = Math.max(i, j);
+                    double dt = timeToHit(a, b);
+                    if (t + dt <= limite) insere(t + dt, a, b);
+                }
+            }
+        }
+    }
+
+    private void agendaTroca(int i) {
+        double dt = tempoAteTrocar(i);
+        if (t + dt <= limite) insere(t + dt, i, TROCA);
+    }
+
+    // Fila de eventos ---------------------------------------------------------------------*/
+
+    private double tempoEvento(int k) {return fila.getDouble(k * EVENTO + TEMPO_EVENTO);}
+
+    private void insere(double tempo, int a, int b) {
+        if (eventosNaFila == capacidade) abreEspaco();
+        int k = ++eventosNaFila;
+        int o = k * EVENTO;
+        fila.putDouble(o + TEMPO_EVENTO, tempo);
+        fila.putInt(o + A, a);
+        fila.putInt(o + B, b);
+        fila.putInt(o + COUNT_A, a >= 0 ? inteiro(a, COUNT) : -1);
+        fila.putInt(o + COUNT_B, b >= 0 ? inteiro(b, COUNT) : -1);
+        sobe(k);
+    }
+
+    private boolean valido(int k) {
+        int o = k * EVENTO;
+        int a = fila.getInt(o + A), b = fila.getInt(o + B);
+        if (a >= 0 && inteiro(a, COUNT) != fila.getInt(o + COUNT_A)) return false;
+        if (b >= 0 && inteiro(b, COUNT) != fila.getInt(o + COUNT_B)) return false;
+        return true;
+    }
+
+    // Antes de aumentar a fila, jogamos fora os eventos que já não valem, como 'Pares.reorganiza'.
+    private void abreEspaco() {
+        int vivos = 0;
+        for (int k = 1; k <= eventosNaFila; k++) {
+            if (!valido(k)) continue;
+            vivos++;
+            if (vivos != k) copia(k, vivos);
+        }
+        eventosNaFila = vivos;
+        for (int k = eventosNaFila / 2; k >= 1; k--) desce(k);
+
+        if (2 * eventosNaFila > capacidade) {
+            long nova = 2L * capacidade;
+            if ((nova + 1) * EVENTO > Integer.MAX_VALUE) throw new IllegalStateException("Fila de eventos cheia");
+            ByteBuffer maior = ByteBuffer.allocateDirect((int) ((nova + 1) * EVENTO)).order(ByteOrder.nativeOrder());
+            ByteBuffer velha = fila.duplicate();
+            velha.position(0).limit((eventosNaFila + 1) * EVENTO);
+            maior.put(velha);
+            fila = maior;
+            capacidade = (int) nova;
+        }
+    }
+
+    private void copia(int de, int para) {
+        for (int b = 0; b < EVENTO; b += 4) fila.putInt(para * EVENTO + b, fila.getInt(de * EVENTO + b));
+    }
+
+    private void troca(int i, int j) {
+        int oi = i * EVENTO, oj = j * EVENTO;
+        for (int b = 0; b < EVENTO; b += 4) {
+            int x = fila.getInt(oi + b);
+            fila.putInt(oi + b, fila.getInt(oj + b));
+            fila.putInt(oj + b, x);
+        }
+    }
+
+    private void sobe(int k) {
+        while (k > 1 && tempoEvento(k / 2) > tempoEvento(k)) {
+            troca(k, k / 2);
+            k = k / 2;
+        }
+    }
+
+    private void desce(int k) {
+        while (2 * k <= eventosNaFila) {
+            int j = 2 * k;
+            if (j < eventosNaFila && tempoEvento(j) > tempoEvento(j + 1)) j++;
+            if (tempoEvento(k) <= tempoEvento(j)) break;
+            troca(k, j);
+            k = j;
+        }
+    }
+
+    // Simulação ----------------------------------------------------------------------------*/
+
+    // Trata todos os eventos até 'tempo' e deixa o relógio exatamente em 'tempo'.
+    public void avancaAte(double tempo) {
+        while (eventosNaFila > 0 && tempoEvento(1) <= tempo) {
+            boolean valido = valido(1);
+            int a = fila.getInt(EVENTO + A), b = fila.getInt(EVENTO + B);
+            double quando = tempoEvento(1);
+            troca(1, eventosNaFila--);
+            desce(1);
+            if (!valido) continue;
+
+            t = quando;
+            eventos++;
+            if (b == TROCA) {
+                sincroniza(a);
+                troca(a);
+                predictPares(a, -1, 0);
+                agendaTroca(a);
+            }
+            else if (a >= 0 && b >= 0) {
+                sincroniza(a);
+                sincroniza(b);
+                bounceOff(a, b);
+                if (observador != null) observador.evento(t, a, b);
+                predict(a, b, 0);
+                predict(b, a, 0);
+            }
+            else if (a >= 0) {
+                sincroniza(a);
+                d(a, VX, -d(a, VX));
+                inteiro(a, COUNT, inteiro(a, COUNT) + 1);
+                if (observador != null) observador.evento(t, a, PAREDE);
+                predict(a, -1, 0);
+            }
+            else {
+                sincroniza(b);
+                d(b, VY, -d(b, VY));
+                inteiro(b, COUNT, inteiro(b, COUNT) + 1);
+                if (observador != null) observador.evento(t, PAREDE, b);
+                predict(b, -1, 0);
+            }
+        }
+        t = tempo;
+    }
+
+    // Leva todas as partículas ao relógio atual e, com um arquivo mapeado, grava o estado
+    // nele. Depois disso os buffers não podem mais ser usados.
+    public void close() {
+        if (estado == null) return;
+        for (int i = 0; i < n; i++) sincroniza(i);
+        if (canal != null) {
+            ((MappedByteBuffer) estado).force();
+            try {canal.close();}
+            catch (IOException e) {throw new UncheckedIOException(e);}
+        }
+        estado = null;
+        cabeca = null;
+        fila = null;
+    }
+}
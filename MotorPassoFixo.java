@@ -0,0 +1,352 @@
+/******************************************************************************
+ *  Compilação:  javac MotorPassoFixo.java
+ *  Execução:    java Asimov pf 600 < input.txt
+ *                java Asimov pf 600 --dt=1e-4 < input.txt
+ *                java Asimov cpf 600 --dt=1e-4 < input.txt
+ *
+ *  Dependencies: Particle.java Observador.java
+ *
+ *  Alternativa a 'Asimov' para sistemas muito densos, em que o laço de
+ *  eventos passa quase todo o tempo na fila. Aqui não há fila: todas as
+ *  partículas andam juntas um passo fixo 'dt', e depois procuramos as que
+ *  se sobrepõem (ou passaram de uma parede) e ainda se aproximam. Cada
+ *  uma dessas colisões é desfeita com a mesma física de 'bounceOff': as
+ *  duas partículas voltam ao instante do contato dentro do passo, trocam
+ *  momento como em 'Particle' e andam de novo o que faltava do passo.
+ *  Colisões binárias isoladas saem exatas; o erro vem das que o passo
+ *  perde (dois choques da mesma partícula no mesmo passo, ou pares que se
+ *  atravessam), e cai junto com 'dt'.
+ *
+ *  O estado fica em arrays de primitivos, com laços simples sobre eles que
+ *  o compilador consegue vetorizar. Os candidatos vêm de uma lista de
+ *  células refeita a cada passo por contagem, com células de lado maior
+ *  que o maior diâmetro. O movimento e a detecção rodam em blocos no pool
+ *  comum de fork-join; as colisões encontradas são ordenadas pelo instante
+ *  do contato e resolvidas em sequência, de modo que o resultado não
+ *  depende do número de threads.
+ *
+ *  'java Asimov pf' escreve as posições em 'tempo' como 'java Asimov s', e
+ *  'java Asimov cpf' roda os dois motores sobre a mesma entrada e compara
+ *  tempo de execução, posições finais e energia. 'java Asimov v' com
+ *  '--candidato=pf' confere as colisões uma a uma.
+ ******************************************************************************/
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+public class MotorPassoFixo {
+
+    // A partir deste número de partículas o movimento e a detecção são feitos em paralelo.
+    private static final int MINIMO_PARALELO = 4096;
+    private static final int BLOCO_PARALELO = 1024;
+    private static final int PAREDE = Observador.PAREDE;
+
+    private final int n;
+    private final double dt;
+    private final double[] rx, ry, vx, vy, raio, massa;
+
+    private final int m;                 // Células por lado.
+    private final int[] celula;          // Célula de cada partícula no passo atual.
+    private final int[] inicio;          // Partículas da célula c em ordem[inicio[c] .. inicio[c + 1]).
+    private final int[] ordem;
+    private final int[] proxima;         // Próxima posição livre de cada célula em 'ordem'.
+
+    private double t = 0.0;
+    private long colisoes = 0;
+    private Observador observador;       // Recebe cada colisão, usado por 'Verificacao'.
+
+    public MotorPassoFixo(Particle[] particles, double dt) {
+        if (!(dt > 0)) throw new IllegalArgumentException("O passo deve ser positivo");
+        this.n = particles.length;
+        this.dt = dt;
+        rx = new double[n]; ry = new double[n];
+        vx = new double[n]; vy = new double[n];
+        raio = new double[n]; massa = new double[n];
+        double rmax = 0;
+        for (int i = 0; i < n; i++) {
+            Particle p = particles[i];
+            rx[i] = p.rx(); ry[i] = p.ry();
+            vx[i] = p.vx(); vy[i] = p.vy();
+            raio[i] = p.radius(); massa[i] = p.mass();
+            rmax = Math.max(rmax, p.radius());
+        }
+
+        int lado = rmax > 0 ? (int) Math.floor(1.0 / (2 * rmax)) : Integer.MAX_VALUE;
+        m = Math.max(1, Math.min(lado, (int) Math.ceil(Math.sqrt(n))));
+        celula = new int[n];
+        inicio = new int[m * m + 1];
+        ordem = new int[n];
+        proxima = new int[m * m];
+    }
+
+    // Um décimo do tempo que a partícula mais rápida leva para andar o menor raio. A energia se
+    // conserva, mas a velocidade máxima pode crescer; sistemas com velocidades muito desiguais
+    // pedem um '--dt' menor.
+    public static double passoPadrao(Particle[] particles) {
+        double rmin = Double.POSITIVE_INFINITY, vmax = 0;
+        for (Particle p : particles) {
+            rmin = Math.min(rmin, p.radius());
+            vmax = Math.max(vmax, Math.hypot(p.vx(), p.vy()));
+        }
+        if (vmax == 0 || rmin == Double.POSITIVE_INFINITY) return 1.0;
+        return 0.1 * rmin / vmax;
+    }
+
+    public void observa(Observador observador) {
+        this.observador = observador;
+    }
+
+    public int tamanho() {return n;}
+
+    public double tempo() {return t;}
+
+    public double passo() {return dt;}
+
+    public long colisoes() {return colisoes;}
+
+    public double rx(int i) {return rx[i];}
+
+    public double ry(int i) {return ry[i];}
+
+    public double vx(int i) {return vx[i];}
+
+    public double vy(int i) {return vy[i];}
+
+    public double energia() {
+        double e = 0.0;
+        for (int i = 0; i < n; i++) e += 0.5 * massa[i] * (vx[i]*vx[i] + vy[i]*vy[i]);
+        return e;
+    }
+
+    // Anda passos de 'dt' até 'tempo'; o último é encurtado para parar exatamente nele.
+    public void avancaAte(double tempo) {
+        while (t < tempo) {
+            double h = Math.min(dt, tempo - t);
+            passo(h);
+            t = h == tempo - t ? tempo : t + h;
+        }
+    }
+
+    // Um passo de duração 'h', do instante 't' até 't + h'.
+    private void passo(double h) {
+        if (n >= MINIMO_PARALELO) ForkJoinPool.commonPool().invoke(new Movimento(0, n, h));
+        else                      move(0, n, h);
+        ordena();
+        Colisoes achadas = n >= MINIMO_PARALELO ? ForkJoinPool.commonPool().invoke(new Deteccao(0, n, h))
+                                                : detecta(0, n, h);
+        resolve(achadas, h);
+    }
+
+    // Fase 1: movimento livre e célula de cada partícula -------------------------------------*/
+
+    private void move(int lo, int hi, double h) {
+        for (int i = lo; i < hi; i++) {
+            rx[i] += vx[i] * h;
+            ry[i] += vy[i] * h;
+        }
+        for (int i = lo; i < hi; i++) celula[i] = coordenada(rx[i]) + m * coordenada(ry[i]);
+    }
+
+    // Quem passou um pouco de uma parede fica na célula da borda.
+    private int coordenada(double x) {
+        return Math.max(0, Math.min(m - 1, (int) (x * m)));
+    }
+
+    @SuppressWarnings("serial")
+    private class Movimento extends RecursiveAction {
+        private final int lo, hi;
+        private final double h;
+
+        Movimento(int lo, int hi, double h) {
+            this.lo = lo;
+            this.hi = hi;
+            this.h = h;
+        }
+
+        protected void compute() {
+            if (hi - lo <= BLOCO_PARALELO) {
+                move(lo, hi, h);
+                return;
+            }
+            int meio = (lo + hi) >>> 1;
+            invokeAll(new Movimento(lo, meio, h), new Movimento(meio, hi, h));
+        }
+    }
+
+    // Ordenação por contagem das partículas pelas células, em tempo linear.
+    private void ordena() {
+        Arrays.fill(inicio, 0);
+        for (int i = 0; i < n; i++) inicio[celula[i] + 1]++;
+        for (int c = 0; c < m * m; c++) inicio[c + 1] += inicio[c];
+        System.arraycopy(inicio, 0, proxima, 0, m * m);
+        for (int i = 0; i < n; i++) ordem[proxima[celula[i]]++] = i;
+    }
+
+    // Fase 2: detecção, só lendo o estado --------------------------------------------------*/
+
+    // Colisões encontradas num bloco: 'a' e 'b' como nos eventos de 'Asimov' (uma delas PAREDE
+    // nas paredes) e quanto tempo antes do fim do passo foi o contato.
+    private static class Colisoes {
+        private int[] as = new int[16], bs = new int[16];
+        private double[] antes = new double[16];
+        private int tamanho = 0;
+
+        void adiciona(int a, int b, double s) {
+            if (tamanho == as.length) {
+                as = Arrays.copyOf(as, 2 * tamanho);
+                bs = Arrays.copyOf(bs, 2 * tamanho);
+                antes = Arrays.copyOf(antes, 2 * tamanho);
+            }
+            as[tamanho] = a;
+            bs[tamanho] = b;
+            antes[tamanho] = s;
+            tamanho++;
+        }
+
+        void adiciona(Colisoes outras) {
+            for (int k = 0; k < outras.tamanho; k++) adiciona(outras.as[k], outras.bs[k], outras.antes[k]);
+        }
+    }
+
+    private Colisoes detecta(int lo, int hi, double h) {
+        Colisoes achadas = new Colisoes();
+        for (int i = lo; i < hi; i++) {
+            double s;
+            if ((s = antesParedeVertical(i, h)) >= 0)   achadas.adiciona(i, PAREDE, s);
+            if ((s = antesParedeHorizontal(i, h)) >= 0) achadas.adiciona(PAREDE, i, s);
+
+            // Cada par é visto pela partícula de menor índice.
+            int cx = celula[i] % m, cy = celula[i] / m;
+            for (int y = Math.max(0, cy - 1); y <= Math.min(m - 1, cy + 1); y++) {
+                for (int x = Math.max(0, cx - 1); x <= Math.min(m - 1, cx + 1); x++) {
+                    int c = x + m * y;
+                    for (int k = inicio[c]; k < inicio[c + 1]; k++) {
+                        int j = ordem[k];
+                        if (j > i && (s = antesContato(i, j, h)) >= 0) achadas.adiciona(i, j, s);
+                    }
+                }
+            }
+        }
+        return achadas;
+    }
+
+    @SuppressWarnings("serial")
+    private class Deteccao extends RecursiveTask<Colisoes> {
+        private final int lo, hi;
+        private final double h;
+
+        Deteccao(int lo, int hi, double h) {
+            this.lo = lo;
+            this.hi = hi;
+            this.h = h;
+        }
+
+        // As listas são juntadas sempre na mesma ordem, como em 'Asimov.Previsoes'.
+        protected Colisoes compute() {
+            if (hi - lo <= BLOCO_PARALELO) return detecta(lo, hi, h);
+            int meio = (lo + hi) >>> 1;
+            Deteccao direita = new Deteccao(meio, hi, h);
+            direita.fork();
+            Colisoes achadas = new Deteccao(lo, meio, h).compute();
+            achadas.adiciona(direita.join());
+            return achadas;
+        }
+    }
+
+    // Quanto tempo antes do fim do passo 'i' e 'j' se tocaram, ou -1 se eles não se sobrepõem
+    // ou já se afastam. Voltando 's' no tempo, |dr - dv s| = raio_i + raio_j; sem passar do
+    // começo do passo, pois antes dele as velocidades podiam ser outras.
+    private double antesContato(int i, int j, double h) {
+        double dx  = rx[j] - rx[i];
+        double dy  = ry[j] - ry[i];
+        double dvx = vx[j] - vx[i];
+        double dvy = vy[j] - vy[i];
+        double dvdr = dx*dvx + dy*dvy;
+        if (dvdr >= 0) return -1;
+        double sigma = raio[i] + raio[j];
+        double drdr = dx*dx + dy*dy;
+        if (drdr >= sigma*sigma) return -1;
+        double dvdv = dvx*dvx + dvy*dvy;
+        double d = dvdr*dvdr - dvdv * (drdr - sigma*sigma);
+        return Math.min(h, (dvdr + Math.sqrt(d)) / dvdv);
+    }
+
+    private double antesParedeVertical(int i, double h) {
+        if (vx[i] < 0 && rx[i] < raio[i])     return Math.min(h, (rx[i] - raio[i]) / vx[i]);
+        if (vx[i] > 0 && rx[i] > 1 - raio[i]) return Math.min(h, (rx[i] - (1 - raio[i])) / vx[i]);
+        return -1;
+    }
+
+    private double antesParedeHorizontal(int i, double h) {
+        if (vy[i] < 0 && ry[i] < raio[i])     return Math.min(h, (ry[i] - raio[i]) / vy[i]);
+        if (vy[i] > 0 && ry[i] > 1 - raio[i]) return Math.min(h, (ry[i] - (1 - raio[i])) / vy[i]);
+        return -1;
+    }
+
+    // Fase 3: resolução, em sequência -------------------------------------------------------*/
+
+    // As colisões vão do contato mais antigo ao mais recente. Uma colisão anterior pode ter
+    // mudado uma das partículas, então cada uma é conferida de novo antes de ser resolvida.
+    private void resolve(Colisoes achadas, double h) {
+        if (achadas.tamanho == 0) return;
+        Integer[] ordemColisoes = new Integer[achadas.tamanho];
+        for (int k = 0; k < ordemColisoes.length; k++) ordemColisoes[k] = k;
+        Arrays.sort(ordemColisoes, (p, q) -> {
+            int c = Double.compare(achadas.antes[q], achadas.antes[p]);
+            if (c != 0) return c;
+            c = Integer.compare(achadas.as[p], achadas.as[q]);
+            return c != 0 ? c : Integer.compare(achadas.bs[p], achadas.bs[q]);
+        });
+
+        double fim = t + h;
+        for (int k : ordemColisoes) {
+            int a = achadas.as[k], b = achadas.bs[k];
+            double s;
+            if (b == PAREDE) {
+                if ((s = antesParedeVertical(a, h)) < 0) continue;
+                rx[a] -= vx[a] * s;
+                vx[a] = -vx[a];
+                rx[a] += vx[a] * s;
+            }
+            else if (a == PAREDE) {
+                if ((s = antesParedeHorizontal(b, h)) < 0) continue;
+                ry[b] -= vy[b] * s;
+                vy[b] = -vy[b];
+                ry[b] += vy[b] * s;
+            }
+            else {
+                if ((s = antesContato(a, b, h)) < 0) continue;
+                choque(a, b, s, h);
+            }
+            colisoes++;
+            if (observador != null) observador.evento(fim - s, a, b);
+        }
+    }
+
+    // 'bounceOff' de 'Particle', no instante 's' antes do fim do passo. Se o contato caiu antes
+    // do começo do passo, as partículas ainda se sobrepõem ali e usamos a distância real.
+    private void choque(int a, int b, double s, double h) {
+        rx[a] -= vx[a] * s; ry[a] -= vy[a] * s;
+        rx[b] -= vx[b] * s; ry[b] -= vy[b] * s;
+
+        double dx  = rx[b] - rx[a];
+        double dy  = ry[b] - ry[a];
+        double dvx = vx[b] - vx[a];
+        double dvy = vy[b] - vy[a];
+        double dvdr = dx*dvx + dy*dvy;
+        double dist = s < h ? raio[a] + raio[b] : Math.sqrt(dx*dx + dy*dy);
+
+        double magnitude = 2 * massa[a] * massa[b] * dvdr / ((massa[a] + massa[b]) * dist);
+        double fx = magnitude * dx / dist;
+        double fy = magnitude * dy / dist;
+        vx[a] += fx / massa[a];
+        vy[a] += fy / massa[a];
+        vx[b] -= fx / massa[b];
+        vy[b] -= fy / massa[b];
+
+        rx[a] += vx[a] * s; ry[a] += vy[a] * s;
+        rx[b] += vx[b] * s; ry[b] += vy[b] * s;
+    }
+}
@@ -0,0 +1,22 @@
+/******************************************************************************
+ *  Compilação:  javac Observador.java
+ *  Execução:    none
+ *
+ *  Dependencies: none
+ *
+ *  Recebe cada colisão tratada por um motor ('Asimov', 'Referencia',
+ *  'MotorForaDoHeap' ou 'MotorPassoFixo'), no instante em que ela
+ *  acontece. É o que 'Verificacao' usa para comparar as sequências de
+ *  eventos de dois motores. Eventos que não mudam a física, como redesenhos
+ *  e atualizações de índices, não são observados.
+ ******************************************************************************/
+
+public interface Observador {
+
+    // Valor de 'b' numa colisão com a parede vertical e de 'a' numa com a horizontal, como
+    // nos eventos de 'Asimov'.
+    int PAREDE = -1;
+
+    // 'a' e 'b' são os índices das partículas no array do motor.
+    void evento(double tempo, int a, int b);
+}
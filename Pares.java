@@ -0,0 +1,102 @@
+/******************************************************************************
+ *  Compilação:  javac Pares.java
+ *  Execução:    none
+ *
+ *  Dependencies: Particle.java
+ *
+ *  Lembra com quais contagens de colisão cada par (i, j), i < j, foi previsto
+ *  pela última vez. Se nenhuma das duas partículas colidiu desde então, o
+ *  evento do par que já está na fila continua valendo e não há por que
+ *  calcular 'timeToHit' de novo nem inserir uma cópia dele.
+ ******************************************************************************/
+
+import java.util.Arrays;
+
+public class Pares {
+
+    private static final long VAZIO = -1;
+
+    private final Particle[] particles;
+    private long[] chaves;           // i * n + j, ou VAZIO.
+    private int[] countI, countJ;    // Contagens de i e j quando o par foi previsto.
+    private int ocupadas = 0;
+
+    public Pares(Particle[] particles) {
+        this.particles = particles;
+        aloca(1024);
+    }
+
+    private void aloca(int capacidade) {
+        chaves = new long[capacidade];
+        Arrays.fill(chaves, VAZIO);
+        countI = new int[capacidade];
+        countJ = new int[capacidade];
+        ocupadas = 0;
+    }
+
+    // Esquece todos os pares, mantendo a capacidade. Deve ser chamada sempre que as
+    // contagens voltam a zero, como depois de 'inverteVel'.
+    public void limpa() {
+        Arrays.fill(chaves, VAZIO);
+        ocupadas = 0;
+    }
+
+    // Devolve verdadeiro se o par precisa ser previsto, e nesse caso o marca como previsto
+    // com as contagens atuais. Devolve falso se ele já foi previsto com essas contagens.
+    public boolean novo(Particle a, Particle b) {
+        Particle p = a, q = b;
+        if (a.indice() > b.indice()) {p = b; q = a;}
+        long chave = (long) p.indice() * particles.length + q.indice();
+
+        int mascara = chaves.length - 1;
+        int k = espalha(chave) & mascara;
+        while (chaves[k] != VAZIO && chaves[k] != chave) k = (k + 1) & mascara;
+
+        if (chaves[k] == chave) {
+            if (countI[k] == p.count() && countJ[k] == q.count()) return false;
+        }
+        else {
+            chaves[k] = chave;
+            ocupadas++;
+        }
+        countI[k] = p.count();
+        countJ[k] = q.count();
+        if (2 * ocupadas > chaves.length) reorganiza();
+        return true;
+    }
+
+    // Joga fora os pares em que alguma partícula já colidiu de novo, pois eles nunca mais
+    // vão coincidir, e só aumenta a tabela se os que sobraram ainda a deixarem cheia.
+    private void reorganiza() {
+        long[] velhas = chaves;
+        int[] velhosI = countI, velhosJ = countJ;
+        int vivas = 0;
+        for (int k = 0; k < velhas.length; k++)
+            if (velhas[k] != VAZIO && atual(velhas[k], velhosI[k], velhosJ[k])) vivas++;
+
+        int capacidade = velhas.length;
+        while (4 * vivas > capacidade) capacidade *= 2;
+        aloca(capacidade);
+
+        int mascara = capacidade - 1;
+        for (int k = 0; k < velhas.length; k++) {
+            if (velhas[k] == VAZIO || !atual(velhas[k], velhosI[k], velhosJ[k])) continue;
+            int c = espalha(velhas[k]) & mascara;
+            while (chaves[c] != VAZIO) c = (c + 1) & mascara;
+            chaves[c] = velhas[k];
+            countI[c] = velhosI[k];
+            countJ[c] = velhosJ[k];
+            ocupadas++;
+        }
+    }
+
+    private boolean atual(long chave, int ci, int cj) {
+        int n = particles.length;
+        return particles[(int) (chave / n)].count() == ci && particles[(int) (chave % n)].count() == cj;
+    }
+
+    private static int espalha(long chave) {
+        chave *= 0x9E3779B97F4A7C15L;
+        return (int) (chave ^ (chave >>> 32));
+    }
+}
@@ -34,6 +34,18 @@ public class Particle {
     private final double radius;  // radius
     private final double mass;    // mass
     private final Color color;    // color
+    private int indice = -1;      // posição no array da simulação, -1 se não estiver em uma
+
+    // Acumuladores de transporte. A posição desdobrada, ox + sx * rx, segue em linha reta
+    // através das paredes, como se cada parede fosse um espelho da caixa.
+    private double ox, oy;
+    private double sx = 1, sy = 1;
+    private double vooX, vooY;    // posição desdobrada na última colisão com outra partícula
+    private double ultimoLivre;   // comprimento do último percurso livre fechado
+    private boolean vooInteiro;   // o voo atual começou numa colisão com outra partícula
+    private boolean livreInteiro; // idem para o último percurso fechado
+    private long colisoes;        // colisões com outras partículas, que 'inverteVel' não zera
+    private long batidas;         // colisões com as paredes, idem
 
 
     /**
@@ -55,6 +67,8 @@ public class Particle {
         this.radius = radius;
         this.mass   = mass;
         this.color  = color;
+        vooX = rx;
+        vooY = ry;
     }
          
     /**
@@ -70,6 +84,8 @@ public class Particle {
         radius = 0.02;
         mass   = 0.5;
         color  = Color.BLACK;
+        vooX = rx;
+        vooY = ry;
     }
 
     /**
@@ -193,6 +209,9 @@ public class Particle {
         // update collision counts
         this.count++;
         that.count++;
+
+        this.fimDeVoo();
+        that.fimDeVoo();
     }
 
     /**
@@ -203,6 +222,11 @@ public class Particle {
     public void bounceOffVerticalWall() {
         vx = -vx;
         count++;
+
+        // Mantém a posição desdobrada contínua: o novo ox + sx * rx é igual ao anterior.
+        ox += 2 * sx * rx;
+        sx = -sx;
+        batidas++;
     }
 
     /**
@@ -213,6 +237,10 @@ public class Particle {
     public void bounceOffHorizontalWall() {
         vy = -vy;
         count++;
+
+        oy += 2 * sy * ry;
+        sy = -sy;
+        batidas++;
     }
 
     /**
@@ -233,6 +261,23 @@ public class Particle {
         count = 0;
     }
 
+    // Sobrescreve o estado dinâmico, para retomar uma simulação gravada em disco. A posição
+    // muda de uma vez, então os acumuladores de transporte recomeçam como numa partícula nova;
+    // senão a posição desdobrada daria um salto e o voo atual teria um comprimento falso.
+    public void defineEstado(double rx, double ry, double vx, double vy, int count) {
+        this.rx = rx;
+        this.ry = ry;
+        this.vx = vx;
+        this.vy = vy;
+        this.count = count;
+        ox = oy = 0;
+        sx = sy = 1;
+        ultimoLivre = 0;
+        livreInteiro = false;
+        colisoes = batidas = 0;
+        iniciaVoo();
+    }
+
     public double rx() {return rx;}
 
     public double ry() {return ry;}
@@ -246,4 +291,50 @@ public class Particle {
     public double mass() {return mass;}
 
     public Color color() {return color;}
+
+    // Posição desta partícula no array de 'Asimov', usada pelos índices espaciais.
+    public int indice() {return indice;}
+
+    public void defineIndice(int indice) {this.indice = indice;}
+
+    // Transporte -------------------------------------------------------------------------*/
+
+    // Fecha o percurso livre atual numa colisão com outra partícula. Como a posição desdobrada
+    // anda em linha reta entre duas dessas colisões, o comprimento é a distância entre elas.
+    private void fimDeVoo() {
+        double ux = desdobradoX(), uy = desdobradoY();
+        double dx = ux - vooX, dy = uy - vooY;
+        ultimoLivre = Math.sqrt(dx*dx + dy*dy);
+        livreInteiro = vooInteiro;
+        vooX = ux;
+        vooY = uy;
+        vooInteiro = true;
+        colisoes++;
+    }
+
+    // Começa um novo percurso livre aqui, como no início de uma medida. Ele não começou numa
+    // colisão, então não é inteiro e 'livreInteiro' será falso quando ele fechar.
+    public void iniciaVoo() {
+        vooX = desdobradoX();
+        vooY = desdobradoY();
+        vooInteiro = false;
+    }
+
+    public double desdobradoX() {return ox + sx * rx;}
+
+    public double desdobradoY() {return oy + sy * ry;}
+
+    // Velocidade da posição desdobrada; as paredes não a mudam.
+    public double vDesdobradaX() {return sx * vx;}
+
+    public double vDesdobradaY() {return sy * vy;}
+
+    public double ultimoLivre() {return ultimoLivre;}
+
+    // Se o último percurso fechado foi de uma colisão a outra, e não desde o início da medida.
+    public boolean livreInteiro() {return livreInteiro;}
+
+    public long colisoes() {return colisoes;}
+
+    public long batidas() {return batidas;}
 }
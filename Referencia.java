@@ -0,0 +1,109 @@
+/******************************************************************************
+ *  Compilação:  javac Referencia.java
+ *  Execução:    java Asimov v 100 10 < input.txt
+ *
+ *  Dependencies: Particle.java MinPQ.java Observador.java
+ *
+ *  O laço original de 'simulaSemPrint', de 'CollisionSystem.java', sem
+ *  nenhuma das otimizações de 'Asimov': cada evento move todas as
+ *  partículas, e cada previsão testa todas as outras, nas duas ordens. Não
+ *  deve ser otimizado; serve de referência para 'Verificacao' conferir que
+ *  um motor mais rápido reproduz as mesmas trajetórias.
+ ******************************************************************************/
+
+public class Referencia {
+
+    private MinPQ<Event> pq;          		 // Fila de prioridades.
+    private double t;          				 // Relógio da simulação.
+    private final Particle[] particles;
+    private final double limite;
+    private Observador observador;
+
+    public Referencia(Particle[] particles, double limite) {
+        this.particles = new Particle[particles.length]; // Cópia defensiva.
+        for (int i = 0; i < particles.length; i++) this.particles[i] = new Particle(particles[i].rx(), particles[i].ry(), particles[i].vx(), particles[i].vy(), particles[i].radius(), particles[i].mass(), particles[i].color());
+        for (int i = 0; i < particles.length; i++) this.particles[i].defineIndice(i);
+        this.limite = limite;
+
+        t = 0.0;
+        pq = new MinPQ<Event>();
+        for (int i = 0; i < this.particles.length; i++) predict(this.particles[i]);
+        pq.insert(new Event(0, null, null));
+    }
+
+    public void observa(Observador observador) {
+        this.observador = observador;
+    }
+
+    private void predict(Particle a) {
+        if (a == null) return;
+
+        for (int i = 0; i < particles.length; i++) {
+            double dt = a.timeToHit(particles[i]);
+            if (t + dt <= limite)
+                pq.insert(new Event(t + dt, a, particles[i]));
+        }
+
+        double dtX = a.timeToHitVerticalWall();
+        double dtY = a.timeToHitHorizontalWall();
+        if (t + dtX <= limite) pq.insert(new Event(t + dtX, a, null));
+        if (t + dtY <= limite) pq.insert(new Event(t + dtY, null, a));
+    }
+
+    // Trata os eventos até 'tempo' e deixa todas as partículas exatamente nesse instante, como
+    // 'Asimov.avancaAte'.
+    public void avancaAte(double tempo) {
+        while (!pq.isEmpty() && pq.min().time <= tempo) {
+            Event e = pq.delMin();
+            if (!e.isValid()) continue;
+            Particle a = e.a;
+            Particle b = e.b;
+            for (int i = 0; i < particles.length; i++) particles[i].move(e.time - t);
+            t = e.time;
+            if      (a != null && b != null) a.bounceOff(b);
+            else if (a != null && b == null) a.bounceOffVerticalWall();
+            else if (a == null && b != null) b.bounceOffHorizontalWall();
+            if (observador != null && (a != null || b != null))
+                observador.evento(t, a == null ? Observador.PAREDE : a.indice(), b == null ? Observador.PAREDE : b.indice());
+            predict(a);
+            predict(b);
+        }
+        for (int i = 0; i < particles.length; i++) particles[i].move(tempo - t);
+        t = tempo;
+    }
+
+    public double tempo() {return t;}
+
+    public double rx(int i) {return particles[i].rx();}
+
+    public double ry(int i) {return particles[i].ry();}
+
+    private static class Event implements Comparable<Event> {
+        private final double time;         // time that event is scheduled to occur
+        private final Particle a, b;       // particles involved in event, possibly null
+        private final int countA, countB;  // collision counts at event creation
+
+        // create a new event to occur at time t involving a and b
+        public Event(double t, Particle a, Particle b) {
+            this.time = t;
+            this.a    = a;
+            this.b    = b;
+            if (a != null) countA = a.count();
+            else           countA = -1;
+            if (b != null) countB = b.count();
+            else           countB = -1;
+        }
+
+        // compare times when two events will occur
+        public int compareTo(Event that) {
+            return Double.compare(this.time, that.time);
+        }
+
+        // has any collision occurred between when event was created and now?
+        public boolean isValid() {
+            if (a != null && a.count() != countA) return false;
+            if (b != null && b.count() != countB) return false;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/******************************************************************************
+ *  Compilação:  javac Renderizador.java
+ *  Execução:    java Asimov pc --assincrono < input.txt
+ *
+ *  Dependencies: StdDraw.java DrawListener.java Particle.java
+ *
+ *  Desenha as partículas numa thread separada da simulação. A simulação só
+ *  publica fotografias das posições num anel sem travas, e a thread de desenho
+ *  pega sempre a mais recente, descartando as que ficaram para trás.
+ ******************************************************************************/
+
+import java.awt.Color;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class Renderizador implements DrawListener, Runnable {
+
+    private static final int CAPACIDADE = 8;   // Número de fotografias guardadas no anel.
+
+    // Anel de fotografias. Cada posição guarda um array novo (x0, y0, x1, y1, ...), de modo
+    // que quem desenha nunca vê uma fotografia escrita pela metade.
+    private final AtomicReferenceArray<double[]> anel = new AtomicReferenceArray<double[]>(CAPACIDADE);
+    private final AtomicLong publicada = new AtomicLong(-1);   // Última fotografia publicada.
+    private long escritas = -1;                                // Só a simulação mexe aqui.
+
+    // Estrutura fixa das partículas, que não muda durante a simulação.
+    private final double[] radius;
+    private final Color[] color;
+
+    private final long periodo;          // Tempo entre quadros, em milissegundos.
+    private final Thread thread;
+    private volatile boolean ativo = true;
+    private volatile boolean clicou = false;
+    private long descartadas = 0;        // Fotografias que nunca chegaram a ser desenhadas.
+
+    public Renderizador(Particle[] particles, double fps) {
+        radius = new double[particles.length];
+        color = new Color[particles.length];
+        for (int i = 0; i < particles.length; i++) {
+            radius[i] = particles[i].radius();
+            color[i] = particles[i].color();
+        }
+        periodo = Math.max(1, Math.round(1000.0 / fps));
+        StdDraw.addListener(this);
+        thread = new Thread(this, "renderizador");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Chamado pela simulação: copia as posições atuais e publica no anel sem esperar
+    // pelo desenho. Se quem desenha estiver atrasado, a fotografia mais antiga é sobrescrita.
+    public void publica(Particle[] particles) {
+        double[] foto = new double[2 * particles.length];
+        for (int i = 0; i < particles.length; i++) {
+            foto[2*i]     = particles[i].rx();
+            foto[2*i + 1] = particles[i].ry();
+        }
+        escritas++;
+        anel.set((int) (escritas % CAPACIDADE), foto);
+        publicada.set(escritas);
+    }
+
+    // O clique chega pelo 'DrawListener', em vez de a simulação perguntar a cada evento.
+    public boolean clicou() {return clicou;}
+
+    public void mousePressed(double x, double y) {
+        clicou = true;
+    }
+
+    // Laço da thread de desenho: a cada quadro desenha a fotografia mais recente, se houver uma nova.
+    public void run() {
+        long desenhada = -1;
+        while (ativo) {
+            long inicio = System.currentTimeMillis();
+            desenhada = desenhaUltima(desenhada);
+            long espera = periodo - (System.currentTimeMillis() - inicio);
+            if (espera > 0) {
+                try {Thread.sleep(espera);}
+                catch (InterruptedException e) {break;}
+            }
+        }
+        desenhaUltima(desenhada);
+    }
+
+    private long desenhaUltima(long desenhada) {
+        long seq = publicada.get();
+        if (seq == desenhada) return desenhada;
+        double[] foto = anel.get((int) (seq % CAPACIDADE));
+        if (foto == null) return desenhada;
+        descartadas += seq - desenhada - 1;
+
+        StdDraw.clear();
+        for (int i = 0; i < radius.length; i++) {
+            StdDraw.setPenColor(color[i]);
+            StdDraw.filledCircle(foto[2*i], foto[2*i + 1], radius[i]);
+        }
+        StdDraw.show();
+        return seq;
+    }
+
+    // Para a thread de desenho depois de mostrar a última fotografia publicada.
+    public long encerra() {
+        ativo = false;
+        thread.interrupt();
+        try {thread.join();}
+        catch (InterruptedException e) {Thread.currentThread().interrupt();}
+        return descartadas;
+    }
+}
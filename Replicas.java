@@ -0,0 +1,260 @@
+/******************************************************************************
+ *  Compilação:  javac Replicas.java
+ *  Execução:    java Asimov br K limiar dif passo tempo < input.txt
+ *
+ *  Dependencies: Particle.java MinPQ.java Aleatorio.java
+ *
+ *  Avança K réplicas de um mesmo sistema de partículas juntas, de modo que
+ *  o estudo do efeito borboleta possa comparar várias cópias perturbadas
+ *  com a original numa única execução.
+ ******************************************************************************/
+
+import java.awt.Color;
+import java.util.ArrayList;
+
+public class Replicas {
+
+    // Área com variáveis globais.
+
+    private final int n;                 // Número de partículas em cada réplica.
+    private final int k;                 // Número de réplicas.
+
+    // Estrutura compartilhada, guardada uma única vez para todas as réplicas.
+    private final double[] radius;
+    private final double[] mass;
+    private final Color[] color;
+
+    // Estado das réplicas em arrays primitivos, ordenados por réplica: a partícula 'i'
+    // da réplica 'r' fica no índice 'r * n + i', de modo que cada réplica é contígua.
+    private final double[] rx, ry, vx, vy;
+    private final int[] count;
+
+    private final double[] t;            // Relógio de cada réplica.
+    private final ArrayList<MinPQ<Event>> pq; // Fila de prioridades de cada réplica.
+    private double limite;               // Horizonte de previsão dos eventos.
+
+    // Recebe 'k' configurações com a mesma estrutura (massas, raios e cores) e
+    // guarda apenas as posições e velocidades de cada uma delas.
+    public Replicas(Particle[][] estados) {
+        if (estados.length < 1) throw new IllegalArgumentException("É preciso ao menos uma réplica");
+        k = estados.length;
+        n = estados[0].length;
+
+        radius = new double[n];
+        mass = new double[n];
+        color = new Color[n];
+        for (int i = 0; i < n; i++) {
+            radius[i] = estados[0][i].radius();
+            mass[i] = estados[0][i].mass();
+            color[i] = estados[0][i].color();
+        }
+
+        rx = new double[k * n]; ry = new double[k * n];
+        vx = new double[k * n]; vy = new double[k * n];
+        count = new int[k * n];
+        for (int r = 0; r < k; r++) {
+            if (estados[r].length != n) throw new IllegalArgumentException("Réplicas com números diferentes de partículas");
+            for (int i = 0; i < n; i++) {
+                Particle p = estados[r][i];
+                if (p.radius() != radius[i] || p.mass() != mass[i])
+                    throw new IllegalArgumentException("Réplicas com estruturas diferentes na partícula " + i);
+                rx[r * n + i] = p.rx(); ry[r * n + i] = p.ry();
+                vx[r * n + i] = p.vx(); vy[r * n + i] = p.vy();
+            }
+        }
+
+        t = new double[k];
+        pq = new ArrayList<MinPQ<Event>>(k);
+        for (int r = 0; r < k; r++) pq.add(new MinPQ<Event>());
+    }
+
+    // Cria 'k' réplicas, sendo a réplica 0 a configuração original e as demais
+    // perturbadas da mesma forma que em 'Asimov.borboleta'.
+    public static Replicas perturbadas(Particle[] original, int k, double dif) {
+        if (k < 1) throw new IllegalArgumentException("É preciso ao menos uma réplica");
+        Particle[][] estados = new Particle[k][];
+        estados[0] = original;
+        for (int r = 1; r < k; r++) {
+            estados[r] = new Particle[original.length];
+            for (int i = 0; i < original.length; i++) {
+                Particle p = original[i];
+                double rx2 = p.rx() + Asimov.sinal() * dif * Aleatorio.uniforme();
+                double ry2 = p.ry() + Asimov.sinal() * dif * Aleatorio.uniforme();
+                double vx2 = p.vx() + Asimov.sinal() * dif * Aleatorio.uniforme()/200;
+                double vy2 = p.vy() + Asimov.sinal() * dif * Aleatorio.uniforme()/200;
+                estados[r][i] = new Particle(rx2, ry2, vx2, vy2, p.radius(), p.mass(), p.color());
+            }
+        }
+        return new Replicas(estados);
+    }
+
+    public int replicas() {return k;}
+
+    public int particulas() {return n;}
+
+    // Física sobre os arrays, com as mesmas contas de 'Particle.java' --------------*/
+
+    private double timeToHit(int r, int i, int j) {
+        if (i == j) return Double.POSITIVE_INFINITY;
+        int a = r * n + i, b = r * n + j;
+        double dx  = rx[b] - rx[a];
+        double dy  = ry[b] - ry[a];
+        double dvx = vx[b] - vx[a];
+        double dvy = vy[b] - vy[a];
+        double dvdr = dx*dvx + dy*dvy;
+        if (dvdr > 0) return Double.POSITIVE_INFINITY;
+        double dvdv = dvx*dvx + dvy*dvy;
+        if (dvdv == 0) return Double.POSITIVE_INFINITY;
+        double drdr = dx*dx + dy*dy;
+        double sigma = radius[i] + radius[j];
+        double d = (dvdr*dvdr) - dvdv * (drdr - sigma*sigma);
+        if (d < 0) return Double.POSITIVE_INFINITY;
+        return -(dvdr + Math.sqrt(d)) / dvdv;
+    }
+
+    private double timeToHitVerticalWall(int r, int i) {
+        int a = r * n + i;
+        if      (vx[a] > 0) return (1.0 - rx[a] - radius[i]) / vx[a];
+        else if (vx[a] < 0) return (radius[i] - rx[a]) / vx[a];
+        else                return Double.POSITIVE_INFINITY;
+    }
+
+    private double timeToHitHorizontalWall(int r, int i) {
+        int a = r * n + i;
+        if      (vy[a] > 0) return (1.0 - ry[a] - radius[i]) / vy[a];
+        else if (vy[a] < 0) return (radius[i] - ry[a]) / vy[a];
+        else                return Double.POSITIVE_INFINITY;
+    }
+
+    private void bounceOff(int r, int i, int j) {
+        int a = r * n + i, b = r * n + j;
+        double dx  = rx[b] - rx[a];
+        double dy  = ry[b] - ry[a];
+        double dvx = vx[b] - vx[a];
+        double dvy = vy[b] - vy[a];
+        double dvdr = dx*dvx + dy*dvy;
+        double dist = radius[i] + radius[j];
+        double magnitude = 2 * mass[i] * mass[j] * dvdr / ((mass[i] + mass[j]) * dist);
+        double fx = magnitude * dx / dist;
+        double fy = magnitude * dy / dist;
+        vx[a] += fx / mass[i];
+        vy[a] += fy / mass[i];
+        vx[b] -= fx / mass[j];
+        vy[b] -= fy / mass[j];
+        count[a]++;
+        count[b]++;
+    }
+
+    // Move todas as partículas de uma réplica, assim como o laço de 'Asimov' faz a cada evento.
+    private void move(int r, double dt) {
+        for (int a = r * n; a < (r + 1) * n; a++) {
+            rx[a] += vx[a] * dt;
+            ry[a] += vy[a] * dt;
+        }
+    }
+
+    /*-----------------------------------------------------------------------------------*/
+
+    // Atualiza a fila de prioridades da réplica 'r' com os novos eventos relacionados à 'i'.
+    private void predict(int r, int i) {
+        if (i < 0) return;
+
+        for (int j = 0; j < n; j++) {
+            double dt = timeToHit(r, i, j);
+            if (t[r] + dt <= limite)
+                pq.get(r).insert(new Event(t[r] + dt, i, j, count[r * n + i], count[r * n + j]));
+        }
+
+        double dtX = timeToHitVerticalWall(r, i);
+        double dtY = timeToHitHorizontalWall(r, i);
+        if (t[r] + dtX <= limite) pq.get(r).insert(new Event(t[r] + dtX, i, -1, count[r * n + i], -1));
+        if (t[r] + dtY <= limite) pq.get(r).insert(new Event(t[r] + dtY, -1, i, -1, count[r * n + i]));
+    }
+
+    private boolean isValid(int r, Event e) {
+        if (e.a >= 0 && count[r * n + e.a] != e.countA) return false;
+        if (e.b >= 0 && count[r * n + e.b] != e.countB) return false;
+        return true;
+    }
+
+    // Zera os relógios e monta as filas de todas as réplicas.
+    public void inicia(double limite) {
+        this.limite = limite;
+        for (int r = 0; r < k; r++) {
+            t[r] = 0.0;
+            pq.set(r, new MinPQ<Event>());
+            for (int i = 0; i < n; i++) predict(r, i);
+        }
+    }
+
+    // Avança todas as réplicas até o instante 'tempo'. Os eventos são tratados réplica
+    // por réplica, e no fim todas as partículas são levadas exatamente até 'tempo'.
+    public void avancaAte(double tempo) {
+        for (int r = 0; r < k; r++) {
+            while (!pq.get(r).isEmpty() && pq.get(r).min().time <= tempo) {
+                Event e = pq.get(r).delMin();
+                if (!isValid(r, e)) continue;
+                move(r, e.time - t[r]);
+                t[r] = e.time;
+                if      (e.a >= 0 && e.b >= 0) bounceOff(r, e.a, e.b);
+                else if (e.a >= 0)             {vx[r * n + e.a] = -vx[r * n + e.a]; count[r * n + e.a]++;}
+                else if (e.b >= 0)             {vy[r * n + e.b] = -vy[r * n + e.b]; count[r * n + e.b]++;}
+                predict(r, e.a);
+                predict(r, e.b);
+            }
+            move(r, tempo - t[r]);
+            t[r] = tempo;
+        }
+    }
+
+    // Mesma conta de 'Asimov.dif', mas entre duas réplicas.
+    public double dif(int r, int s) {
+        double dif = 0.0;
+        for (int i = 0; i < n; i++) {
+            double dx = rx[r * n + i] - rx[s * n + i];
+            double dy = ry[r * n + i] - ry[s * n + i];
+            dif += Math.sqrt(dx*dx + dy*dy);
+        }
+        return dif/n;
+    }
+
+    // Avança as réplicas em passos de 'passo' e guarda, para cada réplica perturbada,
+    // o primeiro instante em que ela difere da réplica 0 mais que 'limiar'. As que não
+    // divergirem até 'tempoMax' ficam com 'Double.POSITIVE_INFINITY'. A posição 0 do
+    // resultado é sempre 0, pois é a própria original.
+    public double[] divergencias(double limiar, double passo, double tempoMax) {
+        double[] tempos = new double[k];
+        for (int r = 1; r < k; r++) tempos[r] = Double.POSITIVE_INFINITY;
+
+        int restantes = k - 1;
+        for (int s = 1; restantes > 0 && s * passo <= tempoMax; s++) {
+            double tempo = s * passo;
+            avancaAte(tempo);
+            for (int r = 1; r < k; r++) {
+                if (tempos[r] == Double.POSITIVE_INFINITY && dif(0, r) > limiar) {
+                    tempos[r] = tempo;
+                    restantes--;
+                }
+            }
+        }
+        return tempos;
+    }
+
+    private static class Event implements Comparable<Event> {
+        private final double time;         // Instante em que o evento ocorre.
+        private final int a, b;            // Índices das partículas envolvidas, -1 se não houver.
+        private final int countA, countB;  // Contagem de colisões na criação do evento.
+
+        public Event(double t, int a, int b, int countA, int countB) {
+            this.time = t;
+            this.a = a;
+            this.b = b;
+            this.countA = countA;
+            this.countB = countB;
+        }
+
+        public int compareTo(Event that) {
+            return Double.compare(this.time, that.time);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/******************************************************************************
+ *  Compilação:  javac Resultados.java
+ *  Execução:    java Asimov bn 100 20 0.1 0.001 1 --resultados=saida.csv
+ *
+ *  Dependencies: Asimov.java Aleatorio.java
+ *
+ *  Destino dos resultados dos laços de ensaios ('borboletaN', 'divergeEps',
+ *  etc.). Cada ensaio vira um registro com o número do ensaio, os
+ *  parâmetros e o tempo medido, que é formatado e escrito por uma thread
+ *  própria; a simulação só coloca o registro numa fila e segue. Com
+ *  '--resultados=arquivo.csv' os registros vão para um CSV, em que a coluna
+ *  da semente fica vazia quando não há semente; com qualquer outra
+ *  extensão, para um arquivo binário por colunas; sem a opção, para o
+ *  console, com as mesmas mensagens de antes.
+ *
+ *  Formato binário (big-endian, legível com 'DataInputStream'): os bytes
+ *  "ASRS", a versão, o experimento (UTF), um byte que diz se há semente e a
+ *  semente (0 se não houver), o número de parâmetros e o nome de cada um
+ *  (UTF). Depois vêm blocos com o número de linhas e, coluna por coluna, os
+ *  ensaios (int), cada parâmetro (double) e os tempos (double).
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public abstract class Resultados implements AutoCloseable {
+
+    private static final class Registro {
+        private final int ensaio;
+        private final double tempo;
+        private final double[] valores;
+
+        Registro(int ensaio, double tempo, double[] valores) {
+            this.ensaio = ensaio;
+            this.tempo = tempo;
+            this.valores = valores;
+        }
+    }
+
+    private static final Registro FIM = new Registro(-1, 0, null);
+
+    protected final String experimento;
+    protected final String[] parametros;
+    protected final Long semente;          // null se não houver semente.
+
+    private final LinkedBlockingQueue<Registro> fila = new LinkedBlockingQueue<Registro>();
+    private Thread escritor;
+    private volatile IOException erro;
+
+    protected Resultados(String experimento, String[] parametros) {
+        this.experimento = experimento;
+        this.parametros = parametros;
+        this.semente = Aleatorio.semente();
+    }
+
+    // Escolhe o destino pela opção '--resultados'. 'parametros' são os nomes dos valores
+    // passados a cada 'registra', além do número do ensaio e do tempo.
+    public static Resultados abre(String experimento, String... parametros) {
+        String arquivo = Asimov.opcao("resultados", "");
+        Resultados resultados;
+        try {
+            if (arquivo.isEmpty())            resultados = new Console(experimento, parametros);
+            else if (arquivo.endsWith(".csv")) resultados = new Csv(Paths.get(arquivo), experimento, parametros);
+            else                              resultados = new Colunas(Paths.get(arquivo), experimento, parametros);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Não foi possível abrir " + arquivo, e);
+        }
+        resultados.escritor = new Thread(resultados::escreveTudo, "resultados");
+        resultados.escritor.setDaemon(true);
+        resultados.escritor.start();
+        return resultados;
+    }
+
+    // Só coloca o registro na fila; nunca espera pela escrita.
+    public void registra(int ensaio, double tempo, double... valores) {
+        if (valores.length != parametros.length) throw new IllegalArgumentException("Esperávamos " + parametros.length + " parâmetros");
+        fila.add(new Registro(ensaio, tempo, valores.clone()));
+    }
+
+    // Espera a fila esvaziar e fecha o destino.
+    public void close() {
+        fila.add(FIM);
+        try {escritor.join();}
+        catch (InterruptedException e) {Thread.currentThread().interrupt();}
+        if (erro != null) throw new UncheckedIOException(erro);
+    }
+
+    private void escreveTudo() {
+        try {
+            while (true) {
+                Registro r = fila.take();
+                if (r == FIM) break;
+                if (erro != null) continue;
+                try {
+                    escreve(r.ensaio, r.tempo, r.valores);
+                    if (fila.isEmpty()) descarrega();
+                }
+                catch (IOException e) {erro = e;}
+            }
+            try {termina();}
+            catch (IOException e) {if (erro == null) erro = e;}
+        }
+        catch (InterruptedException e) {Thread.currentThread().interrupt();}
+    }
+
+    // Chamados só pela thread de escrita.
+    protected abstract void escreve(int ensaio, double tempo, double[] valores) throws IOException;
+
+    // A fila ficou vazia: é uma boa hora para mandar o que estiver acumulado.
+    protected abstract void descarrega() throws IOException;
+
+    protected abstract void termina() throws IOException;
+
+    // Destinos ---------------------------------------------------------------------------*/
+
+    // As mesmas mensagens que os laços escreviam, agrupadas numa escrita só.
+    private static class Console extends Resultados {
+        private final StringBuilder sb = new StringBuilder();
+
+        Console(String experimento, String[] parametros) {
+            super(experimento, parametros);
+        }
+
+        protected void escreve(int ensaio, double tempo, double[] valores) {
+            sb.append("O tempo ").append(ensaio).append(" vale: ").append(tempo).append('\n');
+        }
+
+        protected void descarrega() {
+            System.out.print(sb);
+            System.out.flush();
+            sb.setLength(0);
+        }
+
+        protected void termina() {
+            descarrega();
+        }
+    }
+
+    // Base dos destinos em arquivo: um buffer que é mandado ao canal quando enche.
+    private abstract static class Arquivo extends Resultados {
+        protected final FileChannel canal;
+        protected final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+        Arquivo(Path arquivo, String experimento, String[] parametros) throws IOException {
+            super(experimento, parametros);
+            canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        protected void garante(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) envia();
+        }
+
+        protected void envia() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) canal.write(buffer);
+            buffer.clear();
+        }
+
+        protected void descarrega() throws IOException {
+            envia();
+        }
+
+        protected void termina() throws IOException {
+            envia();
+            canal.close();
+        }
+    }
+
+    private static class Csv extends Arquivo {
+        private final StringBuilder linha = new StringBuilder();
+
+        Csv(Path arquivo, String experimento, String[] parametros) throws IOException {
+            super(arquivo, experimento, parametros);
+            linha.append("experimento,ensaio");
+            for (String p : parametros) linha.append(',').append(p);
+            linha.append(",semente,tempo\n");
+            poe();
+        }
+
+        protected void escreve(int ensaio, double tempo, double[] valores) throws IOException {
+            linha.append(experimento).append(',').append(ensaio);
+            for (double v : valores) linha.append(',').append(v);
+            linha.append(',').append(semente == null ? "" : semente.toString()).append(',').append(tempo).append('\n');
+            poe();
+        }
+
+        private void poe() throws IOException {
+            byte[] bytes = linha.toString().getBytes(StandardCharsets.UTF_8);
+            linha.setLength(0);
+            garante(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    // Guarda até 'BLOCO' linhas em colunas e as escreve juntas.
+    private static class Colunas extends Arquivo {
+        private static final int VERSAO = 2;
+        private static final int BLOCO = 4096;
+
+        private final int[] ensaios = new int[BLOCO];
+        private final double[][] colunas;
+        private final double[] tempos = new double[BLOCO];
+        private int linhas = 0;
+
+        Colunas(Path arquivo, String experimento, String[] parametros) throws IOException {
+            super(arquivo, experimento, parametros);
+            colunas = new double[parametros.length][BLOCO];
+            buffer.put("ASRS".getBytes(StandardCharsets.US_ASCII));
+            buffer.putInt(VERSAO);
+            utf(experimento);
+            buffer.put((byte) (semente == null ? 0 : 1));
+            buffer.putLong(semente == null ? 0 : semente);
+            buffer.putInt(parametros.length);
+            for (String p : parametros) utf(p);
+        }
+
+        // Mesmo formato de 'DataOutputStream.writeUTF' para textos sem caracteres especiais.
+        private void utf(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            garante(2 + bytes.length);
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+
+        protected void escreve(int ensaio, double tempo, double[] valores) throws IOException {
+            ensaios[linhas] = ensaio;
+            for (int c = 0; c < valores.length; c++) colunas[c][linhas] = valores[c];
+            tempos[linhas] = tempo;
+            if (++linhas == BLOCO) bloco();
+        }
+
+        // Nas colunas, só escrevemos quando o bloco enche ou no fim, não a cada fila vazia.
+        protected void descarrega() {}
+
+        private void bloco() throws IOException {
+            if (linhas == 0) return;
+            garante(4);
+            buffer.putInt(linhas);
+            for (int i = 0; i < linhas; i++) {garante(4); buffer.putInt(ensaios[i]);}
+            for (double[] coluna : colunas)
+                for (int i = 0; i < linhas; i++) {garante(8); buffer.putDouble(coluna[i]);}
+            for (int i = 0; i < linhas; i++) {garante(8); buffer.putDouble(tempos[i]);}
+            linhas = 0;
+        }
+
+        protected void termina() throws IOException {
+            bloco();
+            super.termina();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/******************************************************************************
+ *  Compilação:  javac Telemetria.java
+ *  Execução:    java Asimov s 100000 --telemetria=8080 < input.txt
+ *                curl http://localhost:8080/metricas
+ *                curl http://localhost:8080/fluxo
+ *                curl "http://localhost:8080/instantaneo?max=500"
+ *
+ *  Dependencies: Particle.java
+ *
+ *  Servidor HTTP embutido (com.sun.net.httpserver, do próprio JDK), só em
+ *  localhost, para acompanhar simulações longas enquanto elas rodam:
+ *
+ *      /metricas      relógio 't', eventos, eventos por segundo, tamanho da
+ *                     fila, fração de eventos inválidos e deriva relativa
+ *                     de energia de cada sistema, em JSON
+ *      /fluxo         as mesmas métricas a cada segundo (text/event-stream)
+ *      /instantaneo   posições de no máximo 'max' partículas (1000 por
+ *                     padrão), uma a cada tantas; 'motor' escolhe o sistema,
+ *                     e sem ele vale o criado por último
+ *
+ *  A simulação nunca espera pelo servidor. Cada sistema conta os seus eventos
+ *  em campos comuns e, a cada tanto, publica um registro imutável que as
+ *  threads do servidor leem. Um pedido de instantâneo só marca um pedido
+ *  pendente; a simulação copia as posições no próximo evento e o servidor
+ *  espera por elas. Cada sistema é identificado pelo nome da sua thread e um
+ *  número de ordem, como "main-2"; só os últimos 'MAXIMO_FONTES' criados
+ *  aparecem, para que laços que criam muitos sistemas não acumulem fontes.
+ ******************************************************************************/
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class Telemetria {
+
+    private static final long INTERVALO = 250_000_000L;   // Nanossegundos entre duas publicações.
+    private static final int VERIFICA = 1024;             // Eventos entre duas olhadas no relógio.
+    private static final int MAXIMO_FONTES = 64;
+
+    private static volatile HttpServer servidor;
+    private static final ConcurrentSkipListMap<Long, Fonte> fontes = new ConcurrentSkipListMap<Long, Fonte>();
+    private static final AtomicLong criadas = new AtomicLong();
+
+    // Sobe o servidor em localhost. Os sistemas criados depois disso passam a publicar.
+    public static synchronized void liga(int porta) {
+        if (servidor != null) return;
+        try {
+            servidor = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), porta), 0);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Não foi possível abrir a porta " + porta, e);
+        }
+        servidor.createContext("/metricas", Telemetria::metricas);
+        servidor.createContext("/fluxo", Telemetria::fluxo);
+        servidor.createContext("/instantaneo", Telemetria::instantaneo);
+        // Threads daemon, para que o servidor não segure a JVM depois da simulação.
+        servidor.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "telemetria");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        servidor.start();
+        System.err.println("Telemetria em http://localhost:" + servidor.getAddress().getPort() + "/metricas");
+    }
+
+    public static boolean ligada() {
+        return servidor != null;
+    }
+
+    // Uma fonte nova para cada sistema, mesmo que vários rodem na mesma thread, como a
+    // referência e a sombra de 'Lyapunov'. As mais antigas saem do registro.
+    public static Fonte fonte() {
+        long numero = criadas.incrementAndGet();
+        Fonte fonte = new Fonte(Thread.currentThread().getName() + "-" + numero);
+        fontes.put(numero, fonte);
+        while (fontes.size() > MAXIMO_FONTES) fontes.pollFirstEntry();
+        return fonte;
+    }
+
+    // Registro imutável publicado pela simulação.
+    private static final class Metricas {
+        private final double t;
+        private final long eventos, invalidos;
+        private final int fila;
+        private final double porSegundo, deriva;
+
+        Metricas(double t, long eventos, long invalidos, int fila, double porSegundo, double deriva) {
+            this.t = t;
+            this.eventos = eventos;
+            this.invalidos = invalidos;
+            this.fila = fila;
+            this.porSegundo = porSegundo;
+            this.deriva = deriva;
+        }
+    }
+
+    // Pedido de instantâneo, atendido pela thread da simulação.
+    private static final class Pedido {
+        private final int max;
+        private final CompletableFuture<double[]> resposta = new CompletableFuture<double[]>();
+
+        Pedido(int max) {
+            this.max = max;
+        }
+    }
+
+    // Lado da simulação. Só a thread do sistema mexe nos campos comuns.
+    public static final class Fonte {
+        private final String nome;
+        private long eventos, invalidos;
+        private long ultimoTempo = System.nanoTime(), ultimosEventos;
+        private double energia0;
+        private volatile Metricas metricas;
+        private final AtomicReference<Pedido> pedido = new AtomicReference<Pedido>();
+
+        private Fonte(String nome) {
+            this.nome = nome;
+        }
+
+        // Começo de uma simulação: a energia de agora é a referência da deriva.
+        public void inicia(Particle[] particles) {
+            energia0 = energia(particles);
+        }
+
+        // Conta um evento tirado da fila. Devolve verdadeiro quando é hora de chamar 'publica'.
+        public boolean conta(boolean valido) {
+            eventos++;
+            if (!valido) invalidos++;
+            if (pedido.get() != null) return true;
+            return eventos % VERIFICA == 0 && System.nanoTime() - ultimoTempo >= INTERVALO;
+        }
+
+        // Para quem conta vários eventos de uma vez, como um lote, e só então pode publicar.
+        public boolean hora() {
+            return pedido.get() != null || System.nanoTime() - ultimoTempo >= INTERVALO;
+        }
+
+        public void publica(double t, int fila, Particle[] particles) {
+            long agora = System.nanoTime();
+            if (agora - ultimoTempo >= INTERVALO) {
+                double porSegundo = (eventos - ultimosEventos) * 1e9 / (agora - ultimoTempo);
+                double deriva = energia0 == 0 ? 0.0 : (energia(particles) - energia0) / energia0;
+                metricas = new Metricas(t, eventos, invalidos, fila, porSegundo, deriva);
+                ultimoTempo = agora;
+                ultimosEventos = eventos;
+            }
+            Pedido p = pedido.getAndSet(null);
+            if (p != null) p.resposta.complete(copia(t, particles, p.max));
+        }
+
+        private static double energia(Particle[] particles) {
+            double e = 0.0;
+            for (Particle p : particles) e += p.kineticEnergy();
+            return e;
+        }
+
+        // Só copia os números: o texto é montado pela thread do servidor. A cópia tem 't', o
+        // passo e depois os pares x, y.
+        private static double[] copia(double t, Particle[] particles, int max) {
+            int passo = Math.max(1, (particles.length + max - 1) / max);
+            double[] c = new double[2 + 2 * ((particles.length + passo - 1) / passo)];
+            c[0] = t;
+            c[1] = passo;
+            for (int i = 0, k = 2; i < particles.length; i += passo) {
+                c[k++] = particles[i].rx();
+                c[k++] = particles[i].ry();
+            }
+            return c;
+        }
+
+        private String json() {
+            Metricas m = metricas;
+            if (m == null) return "{\"motor\":\"" + nome + "\"}";
+            double fracao = m.eventos == 0 ? 0.0 : (double) m.invalidos / m.eventos;
+            return "{\"motor\":\"" + nome + "\",\"t\":" + m.t + ",\"eventos\":" + m.eventos + ",\"eventosPorSegundo\":" + m.porSegundo
+                   + ",\"fila\":" + m.fila + ",\"invalidos\":" + fracao + ",\"derivaEnergia\":" + m.deriva + "}";
+        }
+    }
+
+    // Lado do servidor ----------------------------------------------------------------------*/
+
+    private static String todas() {
+        StringBuilder sb = new StringBuilder("[");
+        for (Fonte f : fontes.values()) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append(f.json());
+        }
+        return sb.append(']').toString();
+    }
+
+    private static void metricas(HttpExchange troca) throws IOException {
+        responde(troca, 200, "application/json", todas() + "\n");
+    }
+
+    // Envia as métricas a cada segundo até o cliente desconectar.
+    private static void fluxo(HttpExchange troca) throws IOException {
+        troca.getResponseHeaders().set("Content-Type", "text/event-stream");
+        troca.sendResponseHeaders(200, 0);
+        try (OutputStream out = troca.getResponseBody()) {
+            while (true) {
+                out.write(("data: " + todas() + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(1000);
+            }
+        }
+        catch (IOException | InterruptedException e) {
+            // O cliente foi embora.
+        }
+    }
+
+    private static void instantaneo(HttpExchange troca) throws IOException {
+        String consulta = troca.getRequestURI().getQuery();
+        int max = 1000;
+        String motor = null;
+        if (consulta != null) {
+            for (String par : consulta.split("&")) {
+                String[] kv = par.split("=", 2);
+                if (kv.length < 2) continue;
+                if (kv[0].equals("motor")) motor = kv[1];
+                if (kv[0].equals("max")) {
+                    try {max = Math.max(1, Integer.parseInt(kv[1]));}
+                    catch (NumberFormatException e) {
+                        responde(troca, 400, "text/plain", "'max' deve ser um número inteiro.\n");
+                        return;
+                    }
+                }
+            }
+        }
+        Fonte fonte = motor != null ? porNome(motor) : ultima();
+        if (fonte == null) {
+            responde(troca, 404, "text/plain", "Nenhum sistema com esse nome.\n");
+            return;
+        }
+
+        // Um pedido pendente de outro cliente não pode ser sobrescrito, senão ele ficaria sem
+        // resposta. Se for do mesmo tamanho, usamos a mesma cópia; senão esperamos ele ser
+        // atendido e colocamos o nosso, tudo dentro do mesmo prazo de 2 s.
+        long prazo = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        Pedido pedido = new Pedido(max);
+        try {
+            while (!fonte.pedido.compareAndSet(null, pedido)) {
+                Pedido outro = fonte.pedido.get();
+                if (outro == null) continue;
+                if (outro.max == max) {pedido = outro; break;}
+                outro.resposta.get(prazo - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            double[] c = pedido.resposta.get(prazo - System.nanoTime(), TimeUnit.NANOSECONDS);
+            StringBuilder x = new StringBuilder(), y = new StringBuilder();
+            for (int k = 2; k < c.length; k += 2) {
+                if (k > 2) {x.append(','); y.append(',');}
+                x.append(c[k]);
+                y.append(c[k + 1]);
+            }
+            responde(troca, 200, "application/json", "{\"t\":" + c[0] + ",\"passo\":" + (int) c[1] + ",\"x\":[" + x + "],\"y\":[" + y + "]}\n");
+        }
+        catch (TimeoutException e) {
+            fonte.pedido.compareAndSet(pedido, null);
+            responde(troca, 503, "text/plain", "A simulação não tratou nenhum evento nos últimos 2 s.\n");
+        }
+        catch (InterruptedException | ExecutionException e) {
+            responde(troca, 500, "text/plain", e + "\n");
+        }
+    }
+
+    private static Fonte porNome(String nome) {
+        for (Fonte f : fontes.values()) if (f.nome.equals(nome)) return f;
+        return null;
+    }
+
+    private static Fonte ultima() {
+        Map.Entry<Long, Fonte> e = fontes.lastEntry();
+        return e == null ? null : e.getValue();
+    }
+
+    private static void responde(HttpExchange troca, int codigo, String tipo, String corpo) throws IOException {
+        byte[] bytes = corpo.getBytes(StandardCharsets.UTF_8);
+        troca.getResponseHeaders().set("Content-Type", tipo + "; charset=utf-8");
+        troca.sendResponseHeaders(codigo, bytes.length);
+        try (OutputStream out = troca.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/******************************************************************************
+ *  Compilação:  javac Transporte.java
+ *  Execução:    java Asimov tr 600 < input.txt
+ *                java Asimov tr 600 --amostra=10 < input.txt
+ *
+ *  Dependencies: Particle.java
+ *
+ *  Estatísticas de transporte da teoria cinética, mantidas evento a evento
+ *  a partir dos acumuladores de cada 'Particle': frequência de colisões por
+ *  partícula, percurso livre médio, deslocamento quadrático médio (MSD) das
+ *  posições desdobradas através das paredes e o coeficiente de difusão
+ *  MSD / 4t. Lê-las custa O(1), sem passar pelas partículas.
+ *
+ *  Entre duas colisões com outras partículas a posição desdobrada U de cada
+ *  partícula anda em linha reta, U(t) = U0 + A + W t, com A e W constantes.
+ *  Assim Σ |U(t) - U0|² = Σ |A|² + 2t Σ A·W + t² Σ |W|², e só as três somas
+ *  precisam ser guardadas; cada colisão troca as parcelas de duas
+ *  partículas. As somas são recalculadas do zero a cada n colisões, o que
+ *  elimina o erro de arredondamento acumulado sem mudar o custo médio.
+ ******************************************************************************/
+
+public class Transporte {
+
+    private Particle[] particles;
+    private double[] u0x, u0y;           // Posição desdobrada no início da medida.
+    private double[] ax, ay, wx, wy;     // A e W de cada partícula.
+    private double s0, s1, s2;           // Σ |A|², Σ A·W e Σ |W|².
+    private long pares, batidas;
+    private double livres;               // Soma dos percursos livres completos.
+    private long voos;                   // Quantos percursos entram em 'livres'.
+    private int desdeRecalculo;
+
+    // Começa a medida no instante 0, com as partículas como estão.
+    public void inicia(Particle[] particles) {
+        int n = particles.length;
+        this.particles = particles;
+        if (u0x == null || u0x.length != n) {
+            u0x = new double[n]; u0y = new double[n];
+            ax = new double[n]; ay = new double[n];
+            wx = new double[n]; wy = new double[n];
+        }
+        for (int i = 0; i < n; i++) {
+            Particle p = particles[i];
+            p.iniciaVoo();
+            u0x[i] = p.desdobradoX();
+            u0y[i] = p.desdobradoY();
+            ax[i] = ay[i] = 0;
+            wx[i] = p.vDesdobradaX();
+            wy[i] = p.vDesdobradaY();
+        }
+        pares = batidas = voos = 0;
+        livres = 0;
+        recalcula();
+    }
+
+    // Chamado depois de 'a.bounceOff(b)', no instante 't' do choque.
+    public void colisao(Particle a, Particle b, double t) {
+        pares++;
+        livre(a);
+        livre(b);
+        troca(a, t);
+        troca(b, t);
+        if (++desdeRecalculo >= particles.length) recalcula();
+    }
+
+    // O primeiro voo de cada partícula começou no início da medida, não numa colisão, e é
+    // mais curto que um percurso livre; não entra na média.
+    private void livre(Particle p) {
+        if (!p.livreInteiro()) return;
+        livres += p.ultimoLivre();
+        voos++;
+    }
+
+    // Nas paredes W e A não mudam; só contamos.
+    public void parede() {
+        batidas++;
+    }
+
+    private void troca(Particle p, double t) {
+        int i = p.indice();
+        s0 -= ax[i]*ax[i] + ay[i]*ay[i];
+        s1 -= ax[i]*wx[i] + ay[i]*wy[i];
+        s2 -= wx[i]*wx[i] + wy[i]*wy[i];
+        wx[i] = p.vDesdobradaX();
+        wy[i] = p.vDesdobradaY();
+        ax[i] = p.desdobradoX() - wx[i] * t - u0x[i];
+        ay[i] = p.desdobradoY() - wy[i] * t - u0y[i];
+        s0 += ax[i]*ax[i] + ay[i]*ay[i];
+        s1 += ax[i]*wx[i] + ay[i]*wy[i];
+        s2 += wx[i]*wx[i] + wy[i]*wy[i];
+    }
+
+    private void recalcula() {
+        s0 = s1 = s2 = 0;
+        for (int i = 0; i < ax.length; i++) {
+            s0 += ax[i]*ax[i] + ay[i]*ay[i];
+            s1 += ax[i]*wx[i] + ay[i]*wy[i];
+            s2 += wx[i]*wx[i] + wy[i]*wy[i];
+        }
+        desdeRecalculo = 0;
+    }
+
+    public long pares() {return pares;}
+
+    public long batidas() {return batidas;}
+
+    // Colisões com outras partículas, por partícula e por unidade de tempo.
+    public double frequencia(double t) {
+        return 2.0 * pares / (particles.length * t);
+    }
+
+    // Média dos percursos livres completos até agora; 0 enquanto nenhum percurso fechou, para
+    // que a tabela não traga NaN nas primeiras amostras.
+    public double percursoLivre() {
+        return voos == 0 ? 0.0 : livres / voos;
+    }
+
+    // Deslocamento quadrático médio no instante 't', que não pode ser anterior ao último choque.
+    public double deslocamentoQuadratico(double t) {
+        return Math.max(0.0, s0 + 2 * t * s1 + t * t * s2) / particles.length;
+    }
+
+    // Coeficiente de difusão em duas dimensões, MSD / 4t.
+    public double difusao(double t) {
+        return deslocamentoQuadratico(t) / (4 * t);
+    }
+}
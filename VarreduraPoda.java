@@ -0,0 +1,146 @@
+/******************************************************************************
+ *  Compilação:  javac VarreduraPoda.java
+ *  Execução:    java Asimov pg 600 --indice=sap < input.txt
+ *
+ *  Dependencies: IndiceEspacial.java Particle.java
+ *
+ *  Ordenação e varredura ("sweep and prune"). Cada partícula ocupa a caixa
+ *  que ela varre em linha reta durante um horizonte de tempo, e as partículas
+ *  ficam ordenadas pelo começo dessa caixa no eixo x. Os candidatos de uma
+ *  partícula são as que têm caixas sobrepostas à dela. Quando uma caixa é
+ *  refeita a partícula só anda algumas posições na ordem, então a ordenação
+ *  é mantida por inserção. Funciona melhor que a grade em configurações
+ *  esparsas ou alongadas, como 'wallbouncing3.txt' e 'diagonal.txt'.
+ ******************************************************************************/
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+public class VarreduraPoda implements IndiceEspacial {
+
+    private double horizonte;        // Tempo coberto por cada caixa.
+    private int[] ordem;             // Partículas ordenadas por 'x0'.
+    private int[] posicao;           // Posição de cada partícula em 'ordem'.
+    private double[] x0, x1, y0, y1; // Caixa varrida por cada partícula.
+    private double larguraMax;       // Limita quanto voltamos na ordem ao procurar candidatos.
+    private int refeitas;            // Caixas refeitas desde o último recálculo de 'larguraMax'.
+
+    // Com horizonte 0, ele é escolhido em 'constroi' a partir das partículas.
+    public VarreduraPoda(double horizonte) {
+        this.horizonte = horizonte;
+    }
+
+    public VarreduraPoda() {
+        this(0);
+    }
+
+    public void constroi(Particle[] particles) {
+        int n = particles.length;
+        if (ordem == null || ordem.length != n) {
+            ordem = new int[n]; posicao = new int[n];
+            x0 = new double[n]; x1 = new double[n];
+            y0 = new double[n]; y1 = new double[n];
+        }
+
+        // Por padrão, o tempo em que uma partícula de velocidade média anda oito raios médios.
+        if (horizonte <= 0) {
+            double raios = 0, velocidades = 0;
+            for (Particle p : particles) {
+                raios += p.radius();
+                velocidades += Math.hypot(p.vx(), p.vy());
+            }
+            horizonte = velocidades > 0 ? 8 * raios / velocidades : 1.0;
+        }
+
+        for (int i = 0; i < n; i++) {
+            caixa(particles[i]);
+            ordem[i] = i;
+        }
+        ordena();
+        recalculaLargura();
+    }
+
+    // Caixa percorrida por 'p' a partir da posição atual, limitada às paredes.
+    private void caixa(Particle p) {
+        int a = p.indice();
+        double r = p.radius();
+        double xf = p.rx() + p.vx() * horizonte;
+        double yf = p.ry() + p.vy() * horizonte;
+        x0[a] = Math.max(0.0, Math.min(p.rx(), xf) - r);
+        x1[a] = Math.min(1.0, Math.max(p.rx(), xf) + r);
+        y0[a] = Math.max(0.0, Math.min(p.ry(), yf) - r);
+        y1[a] = Math.min(1.0, Math.max(p.ry(), yf) + r);
+    }
+
+    // Ordenação completa; só é usada ao montar o índice.
+    private void ordena() {
+        Integer[] tmp = new Integer[ordem.length];
+        for (int i = 0; i < tmp.length; i++) tmp[i] = ordem[i];
+        Arrays.sort(tmp, (i, j) -> Double.compare(x0[i], x0[j]));
+        for (int i = 0; i < tmp.length; i++) {
+            ordem[i] = tmp[i];
+            posicao[tmp[i]] = i;
+        }
+    }
+
+    private void recalculaLargura() {
+        larguraMax = 0;
+        for (int i = 0; i < ordem.length; i++) larguraMax = Math.max(larguraMax, x1[i] - x0[i]);
+        refeitas = 0;
+    }
+
+    public void candidatos(Particle p, IntConsumer visita) {
+        int a = p.indice();
+        // À esquerda, as caixas começam antes de 'a' e podem alcançá-la; nenhuma tem largura
+        // maior que 'larguraMax', então podemos parar quando o começo fica longe demais.
+        for (int k = posicao[a] - 1; k >= 0; k--) {
+            int j = ordem[k];
+            if (x0[j] < x0[a] - larguraMax) break;
+            if (x1[j] >= x0[a] && y0[j] <= y1[a] && y1[j] >= y0[a]) visita.accept(j);
+        }
+        // À direita, basta a caixa começar antes do fim da de 'a'.
+        for (int k = posicao[a] + 1; k < ordem.length; k++) {
+            int j = ordem[k];
+            if (x0[j] > x1[a]) break;
+            if (y0[j] <= y1[a] && y1[j] >= y0[a]) visita.accept(j);
+        }
+    }
+
+    // A caixa vale por 'horizonte' a partir de quando foi feita, e este método é sempre
+    // chamado logo depois de 'constroi', 'atualiza' ou 'mudouVelocidade'.
+    public double tempoAteAtualizar(Particle a) {
+        return horizonte;
+    }
+
+    public void atualiza(Particle a) {
+        refaz(a);
+    }
+
+    public void mudouVelocidade(Particle a) {
+        refaz(a);
+    }
+
+    // Refaz a caixa de 'a' e a leva até o seu lugar na ordem.
+    private void refaz(Particle p) {
+        int a = p.indice();
+        caixa(p);
+        int k = posicao[a];
+        while (k > 0 && x0[ordem[k - 1]] > x0[a]) {
+            ordem[k] = ordem[k - 1];
+            posicao[ordem[k]] = k;
+            k--;
+        }
+        while (k < ordem.length - 1 && x0[ordem[k + 1]] < x0[a]) {
+            ordem[k] = ordem[k + 1];
+            posicao[ordem[k]] = k;
+            k++;
+        }
+        ordem[k] = a;
+        posicao[a] = k;
+
+        // 'larguraMax' só cresce aqui; de tempos em tempos ela é recalculada para voltar a
+        // refletir as caixas atuais, o que custa O(1) amortizado por caixa refeita.
+        larguraMax = Math.max(larguraMax, x1[a] - x0[a]);
+        if (++refeitas >= ordem.length) recalculaLargura();
+    }
+}
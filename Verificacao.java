@@ -0,0 +1,176 @@
+/******************************************************************************
+ *  Compilação:  javac Verificacao.java
+ *  Execução:    java Asimov v 100 10 < input.txt
+ *                java Asimov v 100 10 --indice=grade < input.txt
+ *                java Asimov v 100 10 --candidato=oh --tolerancia=1e-6 < input.txt
+ *                java Asimov v 1 0.1 --candidato=pf --dt=1e-5 --tolerancia=1e-6 < input.txt
+ *
+ *  Dependencies: Asimov.java Referencia.java MotorForaDoHeap.java
+ *                MotorPassoFixo.java Observador.java Particle.java
+ *
+ *  Roda lado a lado o laço original ('Referencia') e um motor candidato
+ *  sobre o mesmo cenário, até 'tempo', parando a cada 'passo' para conferir
+ *  as colisões tratadas desde a última parada (instante e participantes) e
+ *  as posições de todas as partículas. Para no primeiro ponto em que os
+ *  dois discordam além de '--tolerancia' (1e-9 por padrão) e diz qual foi.
+ *
+ *  O candidato é 'Asimov' com as opções da linha de comando ('--indice',
+ *  '--lote', '--paralelo-inicial', ...), com '--candidato=oh',
+ *  'MotorForaDoHeap' ou, com '--candidato=pf', 'MotorPassoFixo', que só
+ *  concorda com a referência até a primeira colisão que o passo perde.
+ *  Colisões simultâneas podem sair em qualquer ordem.
+ *  Como o sistema é caótico, diferenças de arredondamento crescem com o
+ *  tempo; a verificação é mais útil em tempos curtos e com passos pequenos.
+ ******************************************************************************/
+
+import java.util.Arrays;
+
+public class Verificacao {
+
+    private static final double LIMITE = 10000;
+
+    // O motor sendo verificado, parado sempre no mesmo instante que a referência.
+    private interface Candidato extends AutoCloseable {
+        void avancaAte(double tempo);
+        double rx(int i);
+        double ry(int i);
+        void close();
+    }
+
+    // Colisões observadas desde o último ponto de controle, com os pares de partículas
+    // sempre na ordem crescente de índice.
+    private static class Eventos implements Observador {
+        private double[] tempos = new double[64];
+        private int[] as = new int[64], bs = new int[64];
+        private int n = 0;
+
+        public void evento(double tempo, int a, int b) {
+            if (n == tempos.length) {
+                tempos = Arrays.copyOf(tempos, 2 * n);
+                as = Arrays.copyOf(as, 2 * n);
+                bs = Arrays.copyOf(bs, 2 * n);
+            }
+            tempos[n] = tempo;
+            as[n] = a >= 0 && b >= 0 ? Math.min(a, b) : a;
+            bs[n] = a >= 0 && b >= 0 ? Math.max(a, b) : b;
+            n++;
+        }
+
+        private void troca(int i, int j) {
+            double t = tempos[i]; tempos[i] = tempos[j]; tempos[j] = t;
+            int a = as[i]; as[i] = as[j]; as[j] = a;
+            int b = bs[i]; bs[i] = bs[j]; bs[j] = b;
+        }
+
+        private String texto(int k) {
+            if (k >= n) return "nenhum";
+            String a = as[k] == PAREDE ? "parede horizontal" : "partícula " + as[k];
+            String b = bs[k] == PAREDE ? "parede vertical" : "partícula " + bs[k];
+            return "t = " + tempos[k] + ", " + a + " e " + b;
+        }
+    }
+
+    public static void verifica(double tempo, double passo) {
+        if (passo <= 0) throw new IllegalArgumentException("O passo deve ser positivo");
+        Particle[] particles = Asimov.leCenario(StdIn.readInt(), StdIn::readDouble, StdIn::readInt);
+        double tolerancia = Asimov.opcao("tolerancia", 1e-9);
+        int n = particles.length;
+
+        Eventos esperados = new Eventos(), obtidos = new Eventos();
+        Referencia referencia = new Referencia(particles, LIMITE);
+        referencia.observa(esperados);
+
+        long conferidos = 0;
+        int pontos = 0;
+        double maiorDiferenca = 0;
+        try (Candidato candidato = candidato(Asimov.opcao("candidato", "asimov"), particles, obtidos)) {
+            for (int k = 1; ; k++) {
+                double t = Math.min(k * passo, tempo);
+                referencia.avancaAte(t);
+                candidato.avancaAte(t);
+
+                int k0 = confere(esperados, obtidos, tolerancia);
+                if (k0 >= 0) {
+                    System.out.println("Divergência no evento " + (conferidos + k0 + 1) + ", entre " + (k - 1) * passo + " e " + t + ":");
+                    System.out.println("  referência: " + esperados.texto(k0));
+                    System.out.println("  candidato:  " + obtidos.texto(k0));
+                    return;
+                }
+                conferidos += esperados.n;
+                esperados.n = 0;
+                obtidos.n = 0;
+
+                for (int i = 0; i < n; i++) {
+                    double d = Math.max(Math.abs(referencia.rx(i) - candidato.rx(i)), Math.abs(referencia.ry(i) - candidato.ry(i)));
+                    if (d > tolerancia) {
+                        System.out.println("Divergência de posição em t = " + t + ", depois de " + conferidos + " eventos iguais:");
+                        System.out.println("  partícula " + i + " em (" + referencia.rx(i) + ", " + referencia.ry(i) + ") na referência e em ("
+                                           + candidato.rx(i) + ", " + candidato.ry(i) + ") no candidato");
+                        return;
+                    }
+                    maiorDiferenca = Math.max(maiorDiferenca, d);
+                }
+                pontos++;
+                if (t >= tempo) break;
+            }
+        }
+        System.out.println("Sem divergências até t = " + tempo + ": " + conferidos + " eventos e " + pontos + " pontos de controle.");
+        System.out.println("Maior diferença de posição: " + maiorDiferenca);
+    }
+
+    // Devolve a posição do primeiro evento de 'esperados' sem correspondente em 'obtidos', ou -1
+    // se todos correspondem. Eventos com instantes a menos de 'tolerancia' um do outro podem
+    // aparecer em outra ordem: procuramos o correspondente entre eles e o trazemos para a posição.
+    private static int confere(Eventos esperados, Eventos obtidos, double tolerancia) {
+        for (int k = 0; k < Math.max(esperados.n, obtidos.n); k++) {
+            if (k >= esperados.n || k >= obtidos.n) return k;
+            double t = esperados.tempos[k];
+            int j = k;
+            while (j < obtidos.n && obtidos.tempos[j] <= t + tolerancia
+                   && !(obtidos.as[j] == esperados.as[k] && obtidos.bs[j] == esperados.bs[k])) j++;
+            if (j == obtidos.n || Math.abs(obtidos.tempos[j] - t) > tolerancia
+                || obtidos.as[j] != esperados.as[k] || obtidos.bs[j] != esperados.bs[k]) return k;
+            obtidos.troca(k, j);
+        }
+        return -1;
+    }
+
+    private static Candidato candidato(String nome, Particle[] particles, Observador observador) {
+        if (nome.equals("asimov")) {
+            Asimov system = new Asimov(particles);
+            system.observa(observador);
+            system.comeca(LIMITE);
+            double[][] estado = new double[particles.length][4];
+            return new Candidato() {
+                public void avancaAte(double tempo) {
+                    system.avancaAte(tempo, LIMITE);
+                    system.estado(estado);
+                }
+                public double rx(int i) {return estado[i][0];}
+                public double ry(int i) {return estado[i][1];}
+                public void close() {}
+            };
+        }
+        if (nome.equals("oh")) {
+            MotorForaDoHeap motor = new MotorForaDoHeap(particles, LIMITE);
+            motor.observa(observador);
+            return new Candidato() {
+                public void avancaAte(double tempo) {motor.avancaAte(tempo);}
+                public double rx(int i) {return motor.rx(i);}
+                public double ry(int i) {return motor.ry(i);}
+                public void close() {motor.close();}
+            };
+        }
+        if (nome.equals("pf")) {
+            MotorPassoFixo motor = new MotorPassoFixo(particles, Asimov.opcao("dt", MotorPassoFixo.passoPadrao(particles)));
+            motor.observa(observador);
+            return new Candidato() {
+                public void avancaAte(double tempo) {motor.avancaAte(tempo);}
+                public double rx(int i) {return motor.rx(i);}
+                public double ry(int i) {return motor.ry(i);}
+                public void close() {}
+            };
+        }
+        throw new IllegalArgumentException("Candidato desconhecido: " + nome);
+    }
+}